@@ -0,0 +1,197 @@
+package com.io7m.jtimeline;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * An index of the keyframes with callbacks across all tracks of a
+ * {@link Timeline}, in order of time and then in the order in which the
+ * tracks were added to the timeline. Keyframes without callbacks are not
+ * indexed. The index is a snapshot: keyframes added after it is built are
+ * not observed.
+ */
+
+final class CallbackIndex
+{
+  /**
+   * A keyframe with a callback, during construction of the index.
+   */
+
+  private static final class Entry
+  {
+    private final @Nonnull Timeline.State state;
+    private final @Nonnull Keyframe       keyframe;
+    private final long                    time;
+
+    Entry(
+      final @Nonnull Timeline.State state,
+      final @Nonnull Keyframe keyframe,
+      final long time)
+    {
+      this.state = state;
+      this.keyframe = keyframe;
+      this.time = time;
+    }
+  }
+
+  private static final @Nonnull Comparator<Entry> ENTRY_ORDER;
+
+  static {
+    ENTRY_ORDER = new Comparator<Entry>() {
+      @Override public int compare(
+        final Entry x,
+        final Entry y)
+      {
+        if (x.time < y.time) {
+          return -1;
+        }
+        if (x.time > y.time) {
+          return 1;
+        }
+        return 0;
+      }
+    };
+  }
+
+  private final int                       count;
+  private final @Nonnull long[]           times;
+  private final @Nonnull Timeline.State[] states;
+  private final @Nonnull Keyframe[]       keyframes;
+
+  CallbackIndex(
+    final @Nonnull List<Timeline.State> in_states)
+  {
+    int total = 0;
+    final int tracks = in_states.size();
+    for (int track = 0; track < tracks; ++track) {
+      final KeyframeTrack k = in_states.get(track).getKeyframes();
+      final int size = k.size();
+      for (int index = 0; index < size; ++index) {
+        if (k.callbackGet(index) != null) {
+          total = total + 1;
+        }
+      }
+    }
+
+    final Entry[] entries = new Entry[total];
+    int fill = 0;
+    for (int track = 0; track < tracks; ++track) {
+      final Timeline.State state = in_states.get(track);
+      final KeyframeTrack k = state.getKeyframes();
+      final int size = k.size();
+      for (int index = 0; index < size; ++index) {
+        final Keyframe c = k.callbackGet(index);
+        if (c != null) {
+          entries[fill] = new Entry(state, c, k.time(index));
+          fill = fill + 1;
+        }
+      }
+    }
+
+    /**
+     * The sort is stable, so entries with equal times remain in track order.
+     */
+
+    Arrays.sort(entries, CallbackIndex.ENTRY_ORDER);
+
+    this.count = total;
+    this.times = new long[total];
+    this.states = new Timeline.State[total];
+    this.keyframes = new Keyframe[total];
+    for (int index = 0; index < total; ++index) {
+      final Entry e = entries[index];
+      this.times[index] = e.time;
+      this.states[index] = e.state;
+      this.keyframes[index] = e.keyframe;
+    }
+  }
+
+  /**
+   * Return the index of the first entry with a time greater than or equal
+   * to <code>time</code>, or {@link #size()} if there is no such entry.
+   */
+
+  int indexLower(
+    final long time)
+  {
+    int low = 0;
+    int high = this.count;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (this.times[middle] < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Return the index of the first entry with a time greater than
+   * <code>time</code>, or {@link #size()} if there is no such entry.
+   */
+
+  int indexUpper(
+    final long time)
+  {
+    int low = 0;
+    int high = this.count;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (this.times[middle] <= time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  @Nonnull Keyframe keyframe(
+    final int index)
+  {
+    return this.keyframes[index];
+  }
+
+  /**
+   * Execute the callbacks of the entries in <code>[lower .. upper)</code>,
+   * in ascending order of index if <code>forward</code> is
+   * <code>true</code>, and in descending order otherwise, passing
+   * <code>frame</code> as the frame being evaluated.
+   */
+
+  void run(
+    final int lower,
+    final int upper,
+    final boolean forward,
+    final long frame)
+    throws ConstraintError
+  {
+    if (forward) {
+      for (int index = lower; index < upper; ++index) {
+        this.states[index].callbackRun(this.keyframes[index], frame);
+      }
+    } else {
+      for (int index = upper - 1; index >= lower; --index) {
+        this.states[index].callbackRun(this.keyframes[index], frame);
+      }
+    }
+  }
+
+  int size()
+  {
+    return this.count;
+  }
+
+  @Nonnull Timeline.State state(
+    final int index)
+  {
+    return this.states[index];
+  }
+}
@@ -0,0 +1,101 @@
+package com.io7m.jtimeline;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A queue of keyframe callbacks for a single interpolable value, executed
+ * on an executor in the order in which they were submitted. At most one
+ * task per queue is submitted to the executor at any time, and that task
+ * executes callbacks until the queue is empty, so callbacks for the same
+ * interpolable value never run concurrently or out of order. Callbacks for
+ * different interpolable values run independently.
+ */
+
+final class CallbackQueue implements Runnable
+{
+  /**
+   * A queued callback, and the frame to be passed to it.
+   */
+
+  private static final class Entry
+  {
+    private final @Nonnull Keyframe keyframe;
+    private final long              frame;
+
+    Entry(
+      final @Nonnull Keyframe keyframe,
+      final long frame)
+    {
+      this.keyframe = keyframe;
+      this.frame = frame;
+    }
+  }
+
+  private final @Nonnull Executor                     executor;
+  private final @Nonnull InterpolableScalarReal       interpolable;
+  private final @Nonnull ConcurrentLinkedQueue<Entry> queue;
+  private final @Nonnull AtomicBoolean                scheduled;
+
+  CallbackQueue(
+    final @Nonnull Executor executor,
+    final @Nonnull InterpolableScalarReal interpolable)
+  {
+    this.executor = executor;
+    this.interpolable = interpolable;
+    this.queue = new ConcurrentLinkedQueue<Entry>();
+    this.scheduled = new AtomicBoolean(false);
+  }
+
+  /**
+   * Execute the queued callbacks, in order, until the queue is empty. If a
+   * callback raises an exception, the remaining callbacks are executed by a
+   * new task and the exception is propagated to the executor.
+   */
+
+  @Override public void run()
+  {
+    try {
+      for (;;) {
+        final Entry e = this.queue.poll();
+        if (e == null) {
+          break;
+        }
+        e.keyframe.callbackCall(this.interpolable, e.frame);
+      }
+    } finally {
+      this.scheduled.set(false);
+      if (this.queue.isEmpty() == false) {
+        this.schedule();
+      }
+    }
+  }
+
+  private void schedule()
+  {
+    if (this.scheduled.compareAndSet(false, true)) {
+      try {
+        this.executor.execute(this);
+      } catch (final RejectedExecutionException e) {
+        this.run();
+      }
+    }
+  }
+
+  /**
+   * Queue the callback of <code>k</code> for execution, passing
+   * <code>frame</code> as the frame being evaluated.
+   */
+
+  void submit(
+    final @Nonnull Keyframe k,
+    final long frame)
+  {
+    this.queue.add(new Entry(k, frame));
+    this.schedule();
+  }
+}
@@ -0,0 +1,49 @@
+package com.io7m.jtimeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Type representing one or more groups of {@link InterpolableScalarReal}
+ * values in a specific {@link Timeline}. Handles are returned by
+ * {@link Timeline#groupGetHandle(String)} and allow the values of the groups
+ * to be stepped without repeatedly looking up the groups by name. A handle
+ * refers to the live lists of values of its groups held by the timeline, so
+ * values added to the groups after the handle is created are included.
+ */
+
+public final class GroupHandle
+{
+  private final @Nonnull Timeline                        timeline;
+  private final @Nonnull List<ArrayList<Timeline.State>> states;
+
+  GroupHandle(
+    final @Nonnull Timeline timeline,
+    final @Nonnull List<ArrayList<Timeline.State>> states)
+  {
+    this.timeline = timeline;
+    this.states = Collections.unmodifiableList(states);
+  }
+
+  @Nonnull List<ArrayList<Timeline.State>> getStates()
+  {
+    return this.states;
+  }
+
+  @Nonnull Timeline getTimeline()
+  {
+    return this.timeline;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[GroupHandle ");
+    builder.append(this.states.size());
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,32 @@
+package com.io7m.jtimeline;
+
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Interface used to locate the {@link InterpolableScalarReal} values
+ * referred to by a serialized timeline.
+ * 
+ * @see TimelineBinary#read(java.nio.ByteBuffer, InterpolableResolver)
+ */
+
+public interface InterpolableResolver
+{
+  /**
+   * Retrieve the interpolable value with group <code>group</code>, name
+   * <code>name</code>, and ID <code>id</code>.
+   * 
+   * @throws ConstraintError
+   *           Iff no such interpolable value exists.
+   * @see InterpolableScalarReal#interpolableGetGroup()
+   * @see InterpolableScalarReal#interpolableGetName()
+   * @see InterpolableScalarReal#interpolableGetID()
+   */
+
+  @Nonnull InterpolableScalarReal resolve(
+    final @Nonnull String group,
+    final @Nonnull String name,
+    final long id)
+    throws ConstraintError;
+}
@@ -52,8 +52,14 @@ public interface InterpolableScalarReal
    * interpolation. The resulting interpolated value will be clamped to the
    * range <code>[interpolableMinimum() .. interpolableMaximum()]</code>
    * inclusive before being assigned with <code>interpolableSet()</code>.
+   * Timelines retrieve the value whenever a value is clamped, unless bounds
+   * capture is enabled for the interpolable value, in which case the value
+   * is retrieved once and again only when the timeline is asked to refresh
+   * it. A value of {@link Double#POSITIVE_INFINITY} indicates that there is
+   * no maximum.
    * 
    * @see InterpolableScalarReal#interpolableMinimum()
+   * @see Timeline#boundsCaptureSetEnabled(TrackHandle)
    * @see InterpolableScalarReal#interpolableSet(double)
    */
 
@@ -64,8 +70,14 @@ public interface InterpolableScalarReal
    * interpolation. The resulting interpolated value will be clamped to the
    * range <code>[interpolableMinimum() .. interpolableMaximum()]</code>
    * inclusive before being assigned with <code>interpolableSet()</code>.
+   * Timelines retrieve the value whenever a value is clamped, unless bounds
+   * capture is enabled for the interpolable value, in which case the value
+   * is retrieved once and again only when the timeline is asked to refresh
+   * it. A value of {@link Double#NEGATIVE_INFINITY} indicates that there is
+   * no minimum.
    * 
    * @see InterpolableScalarReal#interpolableMaximum()
+   * @see Timeline#boundsCaptureSetEnabled(TrackHandle)
    * @see InterpolableScalarReal#interpolableSet(double)
    */
 
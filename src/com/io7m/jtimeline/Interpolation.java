@@ -1,7 +1,17 @@
 package com.io7m.jtimeline;
 
+import javax.annotation.Nonnull;
+
 /**
  * Interpolation functions.
+ * 
+ * Each function is also provided in a batch form that interpolates
+ * <code>count</code> independent values at once. The batch forms are simple
+ * counted loops over primitive arrays with no calls other than
+ * {@link Math#sqrt(double)}, which the JIT compiler can translate to SIMD
+ * instructions on platforms that support them. The result for each element
+ * is identical to that of the corresponding scalar function, which remains
+ * the fallback on platforms without SIMD support.
  */
 
 public final class Interpolation
@@ -32,6 +42,40 @@ public final class Interpolation
     return Interpolation.interpolateLinear(factor * factor, min, max);
   }
 
+  /**
+   * Interpolate <code>count</code> values using
+   * {@link #interpolateExponential(double, double, double)}, writing
+   * <code>interpolateExponential(factor[n], min[n], max[n])</code> to
+   * <code>out[n]</code> for each <code>n</code> in
+   * <code>[0 .. count - 1]</code>. <code>out</code> may be the same array as
+   * any of the inputs.
+   * 
+   * @param factor
+   *          The interpolation factors.
+   * @param min
+   *          The lower bounds.
+   * @param max
+   *          The upper bounds.
+   * @param out
+   *          The results.
+   * @param count
+   *          The number of values to interpolate.
+   */
+
+  public static void interpolateExponentialBatch(
+    final @Nonnull double[] factor,
+    final @Nonnull double[] min,
+    final @Nonnull double[] max,
+    final @Nonnull double[] out,
+    final int count)
+  {
+    for (int index = 0; index < count; ++index) {
+      final double f = factor[index];
+      final double x = min[index];
+      out[index] = x + ((f * f) * (max[index] - x));
+    }
+  }
+
   /**
    * Linearly interpolate between <code>min</code> and <code>max</code> based
    * on <code>factor</code>. When <code>factor == 0</code>, the function
@@ -57,6 +101,39 @@ public final class Interpolation
     return min + (factor * (max - min));
   }
 
+  /**
+   * Interpolate <code>count</code> values using
+   * {@link #interpolateLinear(double, double, double)}, writing
+   * <code>interpolateLinear(factor[n], min[n], max[n])</code> to
+   * <code>out[n]</code> for each <code>n</code> in
+   * <code>[0 .. count - 1]</code>. <code>out</code> may be the same array as
+   * any of the inputs.
+   * 
+   * @param factor
+   *          The interpolation factors.
+   * @param min
+   *          The lower bounds.
+   * @param max
+   *          The upper bounds.
+   * @param out
+   *          The results.
+   * @param count
+   *          The number of values to interpolate.
+   */
+
+  public static void interpolateLinearBatch(
+    final @Nonnull double[] factor,
+    final @Nonnull double[] min,
+    final @Nonnull double[] max,
+    final @Nonnull double[] out,
+    final int count)
+  {
+    for (int index = 0; index < count; ++index) {
+      final double x = min[index];
+      out[index] = x + (factor[index] * (max[index] - x));
+    }
+  }
+
   /**
    * Interpolate between <code>min</code> and <code>max</code> based on
    * <code>factor</code>, using a logarithmic scale. When
@@ -83,6 +160,39 @@ public final class Interpolation
     return Interpolation.interpolateLinear(Math.sqrt(factor), min, max);
   }
 
+  /**
+   * Interpolate <code>count</code> values using
+   * {@link #interpolateLogarithmic(double, double, double)}, writing
+   * <code>interpolateLogarithmic(factor[n], min[n], max[n])</code> to
+   * <code>out[n]</code> for each <code>n</code> in
+   * <code>[0 .. count - 1]</code>. <code>out</code> may be the same array as
+   * any of the inputs.
+   * 
+   * @param factor
+   *          The interpolation factors.
+   * @param min
+   *          The lower bounds.
+   * @param max
+   *          The upper bounds.
+   * @param out
+   *          The results.
+   * @param count
+   *          The number of values to interpolate.
+   */
+
+  public static void interpolateLogarithmicBatch(
+    final @Nonnull double[] factor,
+    final @Nonnull double[] min,
+    final @Nonnull double[] max,
+    final @Nonnull double[] out,
+    final int count)
+  {
+    for (int index = 0; index < count; ++index) {
+      final double x = min[index];
+      out[index] = x + (Math.sqrt(factor[index]) * (max[index] - x));
+    }
+  }
+
   private Interpolation()
   {
     throw new AssertionError("unreachable code: report this bug!");
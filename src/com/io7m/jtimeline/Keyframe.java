@@ -16,10 +16,33 @@ import com.io7m.jaux.functional.Procedure;
 
 @Immutable public final class Keyframe
 {
-  private final double                                                          value;
-  private final long                                                            time;
-  private final @Nonnull InterpolationType                                      interpolation;
-  private final @CheckForNull Procedure<Pair<InterpolableScalarReal, Keyframe>> callback;
+  /**
+   * A callback that passes its arguments to a <code>Procedure</code>.
+   */
+
+  private static final class ProcedureCallback implements KeyframeCallback
+  {
+    private final @Nonnull Procedure<Pair<InterpolableScalarReal, Keyframe>> p;
+
+    ProcedureCallback(
+      final @Nonnull Procedure<Pair<InterpolableScalarReal, Keyframe>> in_p)
+    {
+      this.p = in_p;
+    }
+
+    @Override public void call(
+      final @Nonnull InterpolableScalarReal i,
+      final @Nonnull Keyframe k,
+      final long frame)
+    {
+      this.p.call(new Pair<InterpolableScalarReal, Keyframe>(i, k));
+    }
+  }
+
+  private final double                        value;
+  private final long                          time;
+  private final @Nonnull InterpolationType     interpolation;
+  private final @CheckForNull KeyframeCallback callback;
 
   public Keyframe(
     final @Nonnull InterpolationType interpolation,
@@ -34,12 +57,41 @@ import com.io7m.jaux.functional.Procedure;
     this.callback = null;
   }
 
+  /**
+   * Construct a keyframe with a callback given as a <code>Procedure</code>.
+   * Every execution of the callback allocates a new <code>Pair</code>;
+   * callbacks that are executed frequently should implement
+   * {@link KeyframeCallback} instead.
+   * 
+   * @see #Keyframe(InterpolationType, long, double, KeyframeCallback)
+   */
+
   public Keyframe(
     final @Nonnull InterpolationType interpolation,
     final long time,
     final double value,
     final @Nonnull Procedure<Pair<InterpolableScalarReal, Keyframe>> callback)
     throws ConstraintError
+  {
+    this.interpolation =
+      Constraints.constrainNotNull(interpolation, "Interpolation type");
+    this.time = time;
+    this.value = value;
+    this.callback =
+      new ProcedureCallback(Constraints.constrainNotNull(callback, "Callback"));
+  }
+
+  /**
+   * Construct a keyframe with the callback <code>callback</code>, which is
+   * executed without allocating when the keyframe is reached.
+   */
+
+  public Keyframe(
+    final @Nonnull InterpolationType interpolation,
+    final long time,
+    final double value,
+    final @Nonnull KeyframeCallback callback)
+    throws ConstraintError
   {
     this.interpolation =
       Constraints.constrainNotNull(interpolation, "Interpolation type");
@@ -48,6 +100,21 @@ import com.io7m.jaux.functional.Procedure;
     this.callback = Constraints.constrainNotNull(callback, "Callback");
   }
 
+  /**
+   * Execute the callback for the keyframe, if any, without checking the
+   * arguments, passing <code>frame</code> as the frame being evaluated.
+   */
+
+  void callbackCall(
+    final @Nonnull InterpolableScalarReal i,
+    final long frame)
+  {
+    final KeyframeCallback c = this.callback;
+    if (c != null) {
+      c.call(i, this, frame);
+    }
+  }
+
   @Override public boolean equals(
     final Object obj)
   {
@@ -101,6 +168,15 @@ import com.io7m.jaux.functional.Procedure;
     return this.value;
   }
 
+  /**
+   * Return <code>true</code> iff the keyframe has a callback.
+   */
+
+  boolean hasCallback()
+  {
+    return this.callback != null;
+  }
+
   @Override public int hashCode()
   {
     final int prime = 31;
@@ -130,10 +206,7 @@ import com.io7m.jaux.functional.Procedure;
     throws ConstraintError
   {
     Constraints.constrainNotNull(i, "Interpolable");
-
-    if (this.callback != null) {
-      this.callback.call(new Pair<InterpolableScalarReal, Keyframe>(i, this));
-    }
+    this.callbackCall(i, this.time);
   }
 
   @Override public String toString()
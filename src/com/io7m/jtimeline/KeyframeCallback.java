@@ -0,0 +1,35 @@
+package com.io7m.jtimeline;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Interface representing a callback executed when a {@link Timeline}
+ * reaches a {@link Keyframe}. Unlike a callback given as a
+ * <code>Procedure</code>, the arguments are passed separately, so executing
+ * the callback allocates nothing.
+ * 
+ * @see Keyframe#Keyframe(InterpolationType, long, double, KeyframeCallback)
+ */
+
+public interface KeyframeCallback
+{
+  /**
+   * Called when the keyframe <code>k</code> of the interpolable value
+   * <code>i</code> is reached while the timeline evaluates frame
+   * <code>frame</code>. When the timeline is stepped one frame at a time,
+   * <code>frame</code> is the time of <code>k</code>. When frames are
+   * skipped with {@link Timeline#stepBy(long, boolean)} or
+   * {@link Timeline#stepTo(long, boolean)}, the callbacks of keyframes at
+   * skipped frames are passed the frame being stepped to, which may be
+   * earlier than the time of <code>k</code> if the timeline loops. Callbacks
+   * executed by {@link Timeline#callbacksRun(long, long)} are passed the
+   * current time of the timeline, and those executed by
+   * {@link Keyframe#runCallback(InterpolableScalarReal)} the time of
+   * <code>k</code>.
+   */
+
+  void call(
+    final @Nonnull InterpolableScalarReal i,
+    final @Nonnull Keyframe k,
+    final long frame);
+}
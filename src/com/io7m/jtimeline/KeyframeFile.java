@@ -0,0 +1,214 @@
+package com.io7m.jtimeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Functions to write keyframe files: files holding the keyframes of a
+ * single track, in ascending order of time, from which a {@link Timeline}
+ * can stream keyframes as they are needed. Every keyframe occupies a record
+ * of the same size, so that any keyframe can be located by binary search
+ * without an index. All values are in big-endian byte order:
+ * 
+ * <pre>
+ * int32   magic number (0x4A544B46)
+ * int32   format version (1)
+ * for each keyframe:
+ *   int64   time
+ *   float64 value
+ *   int8    interpolation type ({@link InterpolationType} ordinal)
+ * </pre>
+ * 
+ * @see Timeline#interpolableAddStreamed(InterpolableScalarReal,
+ *      java.io.File, int, java.util.concurrent.Executor)
+ */
+
+public final class KeyframeFile
+{
+  static final int MAGIC       = 0x4A544B46;
+  static final int VERSION     = 1;
+  static final int HEADER_SIZE = 8;
+  static final int RECORD_SIZE = 17;
+
+  /**
+   * The largest number of keyframes that can be read from a keyframe file
+   * in a single window, such that the window fits into a single buffer.
+   */
+
+  public static final int WINDOW_MAXIMUM = Integer.MAX_VALUE
+    / KeyframeFile.RECORD_SIZE;
+
+  /**
+   * Return the number of keyframes in the file <code>channel</code>, after
+   * checking its header and size.
+   */
+
+  static long check(
+    final @Nonnull FileChannel channel)
+    throws IOException
+  {
+    final long size = channel.size();
+    if (size < KeyframeFile.HEADER_SIZE) {
+      throw new IOException("Keyframe file is truncated");
+    }
+
+    final ByteBuffer header = ByteBuffer.allocate(KeyframeFile.HEADER_SIZE);
+    header.order(ByteOrder.BIG_ENDIAN);
+    KeyframeFile.readFully(channel, header, 0);
+
+    final int magic = header.getInt(0);
+    if (magic != KeyframeFile.MAGIC) {
+      throw new IOException("Not a keyframe file (bad magic number "
+        + Integer.toHexString(magic)
+        + ")");
+    }
+    final int version = header.getInt(4);
+    if (version != KeyframeFile.VERSION) {
+      throw new IOException("Unsupported keyframe file version " + version);
+    }
+
+    final long body = size - KeyframeFile.HEADER_SIZE;
+    if ((body % KeyframeFile.RECORD_SIZE) != 0) {
+      throw new IOException("Keyframe file has an invalid size");
+    }
+    return body / KeyframeFile.RECORD_SIZE;
+  }
+
+  /**
+   * Fill <code>buffer</code> from <code>channel</code>, starting at file
+   * position <code>position</code>.
+   */
+
+  static void readFully(
+    final @Nonnull FileChannel channel,
+    final @Nonnull ByteBuffer buffer,
+    final long position)
+    throws IOException
+  {
+    long p = position;
+    while (buffer.hasRemaining()) {
+      final int r = channel.read(buffer, p);
+      if (r < 0) {
+        throw new IOException("Unexpected end of keyframe file");
+      }
+      p = p + r;
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Write the header of a keyframe file to <code>channel</code>. The header
+   * is followed by the keyframes written with {@link #writeKeyframes}.
+   * 
+   * @param channel
+   *          The channel.
+   * @throws ConstraintError
+   *           Iff <code>channel == null</code>.
+   * @throws IOException
+   *           Iff an I/O error occurs.
+   */
+
+  public static void writeHeader(
+    final @Nonnull WritableByteChannel channel)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(channel, "Channel");
+
+    final ByteBuffer b = ByteBuffer.allocate(KeyframeFile.HEADER_SIZE);
+    b.order(ByteOrder.BIG_ENDIAN);
+    b.putInt(KeyframeFile.MAGIC);
+    b.putInt(KeyframeFile.VERSION);
+    b.flip();
+    while (b.hasRemaining()) {
+      channel.write(b);
+    }
+  }
+
+  /**
+   * Write the first <code>count</code> keyframes given by
+   * <code>times</code>, <code>values</code>, and <code>types</code> to
+   * <code>channel</code>. The keyframes must be in ascending order of time,
+   * and must be later than any keyframes previously written to the file.
+   * 
+   * @param channel
+   *          The channel.
+   * @param times
+   *          The keyframe times.
+   * @param values
+   *          The keyframe values.
+   * @param types
+   *          The keyframe interpolation types.
+   * @param count
+   *          The number of keyframes to write.
+   * @throws ConstraintError
+   *           Iff any of the arguments are <code>null</code>, any of the
+   *           arrays are shorter than <code>count</code>, or the times are
+   *           not in ascending order.
+   * @throws IOException
+   *           Iff an I/O error occurs.
+   */
+
+  public static void writeKeyframes(
+    final @Nonnull WritableByteChannel channel,
+    final @Nonnull long[] times,
+    final @Nonnull double[] values,
+    final @Nonnull InterpolationType[] types,
+    final int count)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(channel, "Channel");
+    Constraints.constrainNotNull(times, "Times");
+    Constraints.constrainNotNull(values, "Values");
+    Constraints.constrainNotNull(types, "Interpolation types");
+    Constraints.constrainRange(count, 0, Integer.MAX_VALUE);
+    Constraints.constrainArbitrary(
+      (times.length >= count)
+        && (values.length >= count)
+        && (types.length >= count),
+      "Array lengths are at least the keyframe count");
+
+    for (int index = 0; index < count; ++index) {
+      Constraints.constrainNotNull(types[index], "Interpolation type");
+      if (index > 0) {
+        Constraints.constrainArbitrary(
+          times[index - 1] < times[index],
+          "Keyframe times are ascending");
+      }
+    }
+
+    final int per_buffer = 4096;
+    final ByteBuffer b =
+      ByteBuffer.allocate(per_buffer * KeyframeFile.RECORD_SIZE);
+    b.order(ByteOrder.BIG_ENDIAN);
+
+    int index = 0;
+    while (index < count) {
+      final int end = Math.min(count, index + per_buffer);
+      for (; index < end; ++index) {
+        b.putLong(times[index]);
+        b.putDouble(values[index]);
+        b.put((byte) types[index].ordinal());
+      }
+      b.flip();
+      while (b.hasRemaining()) {
+        channel.write(b);
+      }
+      b.clear();
+    }
+  }
+
+  private KeyframeFile()
+  {
+    throw new AssertionError("unreachable code: report this bug!");
+  }
+}
@@ -0,0 +1,384 @@
+package com.io7m.jtimeline;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * A source of keyframes for a single track, streamed from a keyframe file
+ * in windows of a fixed number of keyframes. Windows are read on an
+ * executor and appended to the track by the stepping thread, which never
+ * waits for them. Keyframes behind the playhead are removed from the track
+ * once a full window of them has accumulated.
+ * 
+ * @see KeyframeFile
+ */
+
+final class KeyframeStream
+{
+  /**
+   * A window of keyframes read from the file, or the error raised while
+   * reading it.
+   */
+
+  private static final class Window
+  {
+    final int                     generation;
+    final long                    first;
+    final int                     count;
+    final @CheckForNull long[]    times;
+    final @CheckForNull double[]  values;
+    final @CheckForNull byte[]    interpolations;
+    final @CheckForNull Throwable error;
+
+    Window(
+      final int generation,
+      final long first,
+      final int count,
+      final @CheckForNull long[] times,
+      final @CheckForNull double[] values,
+      final @CheckForNull byte[] interpolations,
+      final @CheckForNull Throwable error)
+    {
+      this.generation = generation;
+      this.first = first;
+      this.count = count;
+      this.times = times;
+      this.values = values;
+      this.interpolations = interpolations;
+      this.error = error;
+    }
+  }
+
+  private static final InterpolationType[] INTERPOLATION_TYPES;
+
+  static {
+    INTERPOLATION_TYPES = InterpolationType.values();
+  }
+
+  private final @Nonnull RandomAccessFile              file;
+  private final @Nonnull FileChannel                   channel;
+  private final long                                   records;
+  private final int                                    window;
+  private final @Nonnull Executor                      executor;
+  private final @Nonnull KeyframeTrack                 track;
+  private final @Nonnull ConcurrentLinkedQueue<Window> completed;
+  private int                                          generation;
+  private int                                          in_flight;
+  private long                                         loaded_first;
+  private long                                         loaded_next;
+  private boolean                                      seek_pending;
+  private long                                         seek_time;
+
+  /**
+   * Construct a stream for the file <code>file</code>, which has been checked
+   * by {@link KeyframeFile#check(FileChannel)} and found to contain
+   * <code>records</code> keyframes, and begin loading the window containing
+   * <code>time</code>.
+   */
+
+  KeyframeStream(
+    final @Nonnull RandomAccessFile file,
+    final long records,
+    final int window,
+    final @Nonnull Executor executor,
+    final @Nonnull KeyframeTrack track,
+    final long time)
+  {
+    assert window <= KeyframeFile.WINDOW_MAXIMUM;
+
+    this.file = file;
+    this.channel = file.getChannel();
+    this.records = records;
+    this.window = window;
+    this.executor = executor;
+    this.track = track;
+    this.completed = new ConcurrentLinkedQueue<Window>();
+    this.generation = 0;
+    this.in_flight = 0;
+    this.loaded_first = 0;
+    this.loaded_next = 0;
+    this.seek_pending = false;
+    this.seek_time = time;
+    this.seek(time);
+  }
+
+  void close()
+    throws IOException
+  {
+    this.file.close();
+  }
+
+  /**
+   * Return <code>true</code> iff the loaded keyframes determine the value of
+   * the track at <code>time</code>.
+   */
+
+  private boolean covers(
+    final long time)
+  {
+    final KeyframeTrack k = this.track;
+    final int size = k.size();
+
+    if (this.seek_pending) {
+      return false;
+    }
+    if ((this.loaded_first > 0) && ((size == 0) || (time < k.time(0)))) {
+      return false;
+    }
+    if ((this.loaded_next < this.records)
+      && ((size == 0) || (time >= k.time(size - 1)))) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Read the window of keyframes starting at record <code>first</code>, or,
+   * iff <code>seek</code> is <code>true</code>, starting at the record of the
+   * last keyframe at or before <code>time</code>. Called on the executor.
+   */
+
+  private @Nonnull Window load(
+    final int g,
+    final boolean seek,
+    final long time,
+    final long first)
+  {
+    try {
+      final long start = seek ? this.search(time) : first;
+      final int count = (int) Math.min(this.window, this.records - start);
+
+      final ByteBuffer b =
+        ByteBuffer.allocate(count * KeyframeFile.RECORD_SIZE);
+      b.order(ByteOrder.BIG_ENDIAN);
+      KeyframeFile.readFully(this.channel, b, KeyframeStream.position(start));
+
+      final long[] times = new long[count];
+      final double[] values = new double[count];
+      final byte[] interpolations = new byte[count];
+      for (int index = 0; index < count; ++index) {
+        times[index] = b.getLong();
+        values[index] = b.getDouble();
+        interpolations[index] = b.get();
+
+        final int type = interpolations[index];
+        if ((type < 0) || (type >= KeyframeStream.INTERPOLATION_TYPES.length)) {
+          throw new IOException("Invalid interpolation type " + type);
+        }
+        if ((index > 0) && (times[index - 1] >= times[index])) {
+          throw new IOException("Keyframe times are not ascending");
+        }
+      }
+
+      return new Window(g, start, count, times, values, interpolations, null);
+    } catch (final Throwable e) {
+      return new Window(g, first, 0, null, null, null, e);
+    }
+  }
+
+  private static long position(
+    final long record)
+  {
+    return KeyframeFile.HEADER_SIZE + (record * KeyframeFile.RECORD_SIZE);
+  }
+
+  /**
+   * Return the index of the last record with a time less than or equal to
+   * <code>time</code>, or <code>0</code> if there is no such record.
+   */
+
+  private long search(
+    final long time)
+    throws IOException
+  {
+    final ByteBuffer b = ByteBuffer.allocate(8);
+    b.order(ByteOrder.BIG_ENDIAN);
+
+    long low = 0;
+    long high = this.records - 1;
+    while (low <= high) {
+      final long middle = (low + high) >>> 1;
+      b.clear();
+      KeyframeFile.readFully(this.channel, b, KeyframeStream.position(middle));
+      if (b.getLong(0) <= time) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    return Math.max(low - 1, 0);
+  }
+
+  /**
+   * Discard all loaded keyframes and begin loading the window containing
+   * <code>time</code>.
+   */
+
+  private void seek(
+    final long time)
+  {
+    this.generation = this.generation + 1;
+    this.track.keyframeRemoveFirst(this.track.size());
+    this.loaded_first = 0;
+    this.loaded_next = 0;
+    this.seek_pending = true;
+    this.seek_time = time;
+    this.submitPending();
+  }
+
+  private void submit(
+    final boolean seek,
+    final long time,
+    final long first)
+  {
+    final int g = this.generation;
+    final Runnable r = new Runnable() {
+      @Override public void run()
+      {
+        KeyframeStream.this.completed.add(KeyframeStream.this.load(
+          g,
+          seek,
+          time,
+          first));
+      }
+    };
+
+    this.in_flight = this.in_flight + 1;
+    try {
+      this.executor.execute(r);
+    } catch (final RejectedExecutionException e) {
+      r.run();
+    }
+  }
+
+  /**
+   * Submit the pending seek, if any, once no reads are in progress.
+   */
+
+  private void submitPending()
+  {
+    if (this.seek_pending && (this.in_flight == 0)) {
+      this.seek_pending = false;
+      this.submit(true, this.seek_time, 0);
+    }
+  }
+
+  /**
+   * Bring the loaded keyframes up to date for a step at <code>time</code>:
+   * append any windows that have finished loading, start loading the next
+   * window if the playhead is approaching the end of the loaded keyframes,
+   * and remove keyframes behind the playhead. If <code>sequential</code> is
+   * <code>false</code> and the loaded keyframes do not determine the value at
+   * <code>time</code>, they are discarded and loading restarts at
+   * <code>time</code>. This function never waits for a window to load, but
+   * windows that finish loading during the call, such as those read by a
+   * synchronous executor, are appended before it returns.
+   * 
+   * @return <code>true</code> iff keyframes were added to the track.
+   * @throws ConstraintError
+   *           Iff reading a window failed.
+   */
+
+  boolean update(
+    final long time,
+    final boolean sequential)
+    throws ConstraintError
+  {
+    final KeyframeTrack k = this.track;
+    boolean added = this.receive();
+
+    if ((sequential == false) && (this.covers(time) == false)) {
+      if ((k.size() > 0) || (this.seek_time != time)) {
+        this.seek(time);
+      }
+    }
+    this.submitPending();
+
+    final int source = k.indexSource(time);
+    final int ahead = k.size() - Math.max(source, 0);
+    if (source >= this.window) {
+      k.keyframeRemoveFirst(source);
+      this.loaded_first = this.loaded_first + source;
+    }
+
+    if ((this.in_flight == 0)
+      && (this.seek_pending == false)
+      && (this.loaded_next < this.records)
+      && (ahead < this.window)) {
+      this.submit(false, time, this.loaded_next);
+    }
+
+    return this.receive() || added;
+  }
+
+  /**
+   * Append all windows that have finished loading to the track.
+   * 
+   * @return <code>true</code> iff keyframes were added to the track.
+   */
+
+  private boolean receive()
+    throws ConstraintError
+  {
+    final KeyframeTrack k = this.track;
+    boolean added = false;
+
+    for (;;) {
+      final Window w = this.completed.poll();
+      if (w == null) {
+        break;
+      }
+
+      this.in_flight = this.in_flight - 1;
+      if (w.generation != this.generation) {
+        continue;
+      }
+
+      final Throwable e = w.error;
+      if (e != null) {
+        Constraints.constrainArbitrary(false, "Keyframe stream is readable ("
+          + e.getMessage()
+          + ")");
+      }
+
+      final int size = k.size();
+      if (size == 0) {
+        this.loaded_first = w.first;
+      }
+      if (w.count > 0) {
+        assert w.times != null;
+        assert w.values != null;
+        assert w.interpolations != null;
+
+        /**
+         * Times are checked for order within a window as it is read, but a
+         * window can only be checked against the previous window here.
+         */
+
+        if (size > 0) {
+          Constraints.constrainArbitrary(
+            w.times[0] > k.time(size - 1),
+            "Keyframe stream is readable (Keyframe times are not ascending)");
+        }
+        k.keyframeAddAll(w.times, w.values, w.interpolations, null, w.count);
+        added = true;
+      }
+      this.loaded_next = w.first + w.count;
+    }
+
+    return added;
+  }
+}
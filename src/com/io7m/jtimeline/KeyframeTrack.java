@@ -0,0 +1,761 @@
+package com.io7m.jtimeline;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Type representing the time-ordered sequence of keyframes for a single
+ * interpolable value. Times, values, and interpolation types are held in
+ * parallel primitive arrays, sorted in ascending order of time. The original
+ * {@link Keyframe} is only retained for keyframes that have callbacks.
+ */
+
+final class KeyframeTrack
+{
+  /**
+   * The shape of the curve of a segment. The value of a segment at
+   * interpolation factor <code>f</code> is
+   * <code>base + (shape(f) * delta)</code>, which for each curve is exactly
+   * the value given by the corresponding function of {@link Interpolation}.
+   */
+
+  private static enum Curve
+  {
+    CURVE_CONSTANT {
+      @Override double shape(
+        final double factor)
+      {
+        return 0.0;
+      }
+    },
+
+    CURVE_EXPONENTIAL {
+      @Override double shape(
+        final double factor)
+      {
+        return factor * factor;
+      }
+    },
+
+    CURVE_LINEAR {
+      @Override double shape(
+        final double factor)
+      {
+        return factor;
+      }
+    },
+
+    CURVE_LOGARITHMIC {
+      @Override double shape(
+        final double factor)
+      {
+        return Math.sqrt(factor);
+      }
+    };
+
+    abstract double shape(
+      final double factor);
+  }
+
+  private static final int                 INITIAL_CAPACITY    = 4;
+  private static final int                 CURSOR_WALK_MAXIMUM = 4;
+  private static final int                 SEEK_INDEX_MINIMUM  = 64;
+  private static final InterpolationType[] INTERPOLATION_TYPES;
+
+  static {
+    INTERPOLATION_TYPES = InterpolationType.values();
+  }
+
+  private @Nonnull long[]           times;
+  private @Nonnull double[]         values;
+  private @Nonnull byte[]           interpolations;
+  private @Nonnull double[]         seg_inverse;
+  private @Nonnull double[]         seg_base;
+  private @Nonnull double[]         seg_delta;
+  private @Nonnull Curve[]          seg_curves;
+  private @CheckForNull Keyframe[]  callbacks;
+  private int                       size;
+  private int                       version;
+  private @CheckForNull long[]      seek_times;
+  private @CheckForNull int[]       seek_indices;
+  private boolean                   seek_valid;
+
+  KeyframeTrack()
+  {
+    this.times = new long[KeyframeTrack.INITIAL_CAPACITY];
+    this.values = new double[KeyframeTrack.INITIAL_CAPACITY];
+    this.interpolations = new byte[KeyframeTrack.INITIAL_CAPACITY];
+    this.seg_inverse = new double[KeyframeTrack.INITIAL_CAPACITY];
+    this.seg_base = new double[KeyframeTrack.INITIAL_CAPACITY];
+    this.seg_delta = new double[KeyframeTrack.INITIAL_CAPACITY];
+    this.seg_curves = new Curve[KeyframeTrack.INITIAL_CAPACITY];
+    this.callbacks = null;
+    this.size = 0;
+    this.version = 0;
+    this.seek_times = null;
+    this.seek_indices = null;
+    this.seek_valid = false;
+  }
+
+  /**
+   * Construct a copy of <code>source</code> that shares no mutable data
+   * with it. The seek index of <code>source</code> is neither read nor
+   * copied, so a track may be copied while another thread searches it.
+   */
+
+  KeyframeTrack(
+    final @Nonnull KeyframeTrack source)
+  {
+    this.times = source.times.clone();
+    this.values = source.values.clone();
+    this.interpolations = source.interpolations.clone();
+    this.seg_inverse = source.seg_inverse.clone();
+    this.seg_base = source.seg_base.clone();
+    this.seg_delta = source.seg_delta.clone();
+    this.seg_curves = source.seg_curves.clone();
+    this.callbacks =
+      (source.callbacks != null) ? source.callbacks.clone() : null;
+    this.size = source.size;
+    this.version = source.version;
+    this.seek_times = null;
+    this.seek_indices = null;
+    this.seek_valid = false;
+  }
+
+  /**
+   * Return the keyframe at index <code>index</code> iff it has a callback.
+   */
+
+  @CheckForNull Keyframe callbackGet(
+    final int index)
+  {
+    if (this.callbacks != null) {
+      return this.callbacks[index];
+    }
+    return null;
+  }
+
+  private void callbackSet(
+    final int index,
+    final @CheckForNull Keyframe k)
+  {
+    if (k != null) {
+      if (this.callbacks == null) {
+        this.callbacks = new Keyframe[this.times.length];
+      }
+      this.callbacks[index] = k;
+    } else if (this.callbacks != null) {
+      this.callbacks[index] = null;
+    }
+  }
+
+  private void ensureCapacity(
+    final int required)
+  {
+    final int capacity = this.times.length;
+    if (required <= capacity) {
+      return;
+    }
+
+    final int new_capacity = Math.max(required, capacity + (capacity >> 1));
+
+    final long[] new_times = new long[new_capacity];
+    System.arraycopy(this.times, 0, new_times, 0, this.size);
+    this.times = new_times;
+
+    final double[] new_values = new double[new_capacity];
+    System.arraycopy(this.values, 0, new_values, 0, this.size);
+    this.values = new_values;
+
+    final byte[] new_interpolations = new byte[new_capacity];
+    System.arraycopy(this.interpolations, 0, new_interpolations, 0, this.size);
+    this.interpolations = new_interpolations;
+
+    final double[] new_inverse = new double[new_capacity];
+    System.arraycopy(this.seg_inverse, 0, new_inverse, 0, this.size);
+    this.seg_inverse = new_inverse;
+
+    final double[] new_base = new double[new_capacity];
+    System.arraycopy(this.seg_base, 0, new_base, 0, this.size);
+    this.seg_base = new_base;
+
+    final double[] new_delta = new double[new_capacity];
+    System.arraycopy(this.seg_delta, 0, new_delta, 0, this.size);
+    this.seg_delta = new_delta;
+
+    final Curve[] new_curves = new Curve[new_capacity];
+    System.arraycopy(this.seg_curves, 0, new_curves, 0, this.size);
+    this.seg_curves = new_curves;
+
+    if (this.callbacks != null) {
+      final Keyframe[] new_callbacks = new Keyframe[new_capacity];
+      System.arraycopy(this.callbacks, 0, new_callbacks, 0, this.size);
+      this.callbacks = new_callbacks;
+    }
+  }
+
+  /**
+   * Return the index of the last keyframe with a time less than or equal to
+   * <code>time</code>, or <code>-1</code> if no such keyframe exists. This is
+   * the keyframe from which values are interpolated at <code>time</code>.
+   */
+
+  int indexSource(
+    final long time)
+  {
+    final long[] t = this.times;
+    int low = 0;
+    int high = this.size - 1;
+
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final long mt = t[middle];
+      if (mt <= time) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    return low - 1;
+  }
+
+  /**
+   * Return the index of the last keyframe with a time less than or equal to
+   * <code>time</code>, or <code>-1</code> if no such keyframe exists, using
+   * <code>cursor</code> (the result of a previous lookup for an earlier time)
+   * as a starting point. When time moves forward by small amounts, as it does
+   * during ordinary playback, this is amortized constant time. The result is
+   * identical to that of {@link #indexSource(long)} for any
+   * <code>cursor</code>.
+   */
+
+  int indexSourceFrom(
+    final int cursor,
+    final long time)
+  {
+    final long[] t = this.times;
+    final int last = this.size - 1;
+
+    if ((cursor < -1) || (cursor > last)) {
+      return this.indexSource(time);
+    }
+    if ((cursor >= 0) && (t[cursor] > time)) {
+      return this.indexSource(time);
+    }
+
+    int index = cursor;
+    for (int walk = 0; walk < KeyframeTrack.CURSOR_WALK_MAXIMUM; ++walk) {
+      if ((index == last) || (t[index + 1] > time)) {
+        return index;
+      }
+      index = index + 1;
+    }
+
+    return this.indexSource(time);
+  }
+
+  /**
+   * Return the same result as {@link #indexSource(long)}, using a search
+   * layout suited to random access. For large tracks, keyframe times are
+   * copied into Eytzinger (breadth-first) order so that the first levels of
+   * every search share the same few cache lines, and the descent is free of
+   * unpredictable branches. The index is rebuilt lazily after the track is
+   * modified.
+   */
+
+  int indexSeek(
+    final long time)
+  {
+    final int n = this.size;
+    if (n < KeyframeTrack.SEEK_INDEX_MINIMUM) {
+      return this.indexSource(time);
+    }
+    if (this.seek_valid == false) {
+      this.seekIndexBuild();
+    }
+
+    final long[] e = this.seek_times;
+    assert e != null;
+    final int[] r = this.seek_indices;
+    assert r != null;
+
+    int k = 1;
+    while (k <= n) {
+      k = (k << 1) + ((e[k] <= time) ? 1 : 0);
+    }
+    k = k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+
+    if (k == 0) {
+      return n - 1;
+    }
+    return r[k] - 1;
+  }
+
+  private void seekIndexBuild()
+  {
+    final int required = this.size + 1;
+    if ((this.seek_times == null) || (this.seek_times.length < required)) {
+      this.seek_times = new long[this.times.length + 1];
+      this.seek_indices = new int[this.times.length + 1];
+    }
+    this.seekIndexBuildNode(0, 1);
+    this.seek_valid = true;
+  }
+
+  private int seekIndexBuildNode(
+    final int index,
+    final int node)
+  {
+    int i = index;
+    if (node <= this.size) {
+      i = this.seekIndexBuildNode(i, node << 1);
+      this.seek_times[node] = this.times[i];
+      this.seek_indices[node] = i;
+      i = i + 1;
+      i = this.seekIndexBuildNode(i, (node << 1) + 1);
+    }
+    return i;
+  }
+
+  /**
+   * Return the index of the first keyframe with a time strictly greater than
+   * <code>time</code>, or <code>-1</code> if no such keyframe exists. This is
+   * the keyframe towards which values are interpolated at <code>time</code>.
+   */
+
+  int indexTarget(
+    final long time)
+  {
+    final int index = this.indexSource(time) + 1;
+    if (index < this.size) {
+      return index;
+    }
+    return -1;
+  }
+
+  /**
+   * Return the interpolated value at <code>time</code> for the segment
+   * starting at keyframe <code>index</code>. If <code>index</code> is the
+   * last keyframe, the value of that keyframe is returned. The coefficients
+   * of the segment are computed when keyframes are added, so evaluation
+   * requires neither a division nor a test of the interpolation type.
+   */
+
+  double interpolate(
+    final int index,
+    final long time)
+  {
+    final double f = (time - this.times[index]) * this.seg_inverse[index];
+    final double s = this.seg_curves[index].shape(f);
+    return this.seg_base[index] + (s * this.seg_delta[index]);
+  }
+
+  @Nonnull InterpolationType interpolationType(
+    final int index)
+  {
+    return KeyframeTrack.INTERPOLATION_TYPES[this.interpolations[index]];
+  }
+
+  /**
+   * Add the keyframe <code>k</code> to the track. If <code>k</code> is later
+   * than every existing keyframe, as is the case when keyframes are recorded
+   * or generated in time order, it is appended in amortized constant time
+   * without searching the track. Otherwise, the position of <code>k</code> is
+   * found by binary search and later keyframes are moved to make room.
+   */
+
+  void keyframeAdd(
+    final @Nonnull Keyframe k)
+    throws ConstraintError
+  {
+    final long time = k.getTime();
+    final int last = this.size - 1;
+    final int index;
+
+    if ((last < 0) || (this.times[last] < time)) {
+      index = this.size;
+    } else {
+      final int source = this.indexSource(time);
+      Constraints.constrainArbitrary(
+        (source < 0) || (this.times[source] != time),
+        "Keyframe not added for frame '" + time + "'");
+      index = source + 1;
+    }
+
+    this.ensureCapacity(this.size + 1);
+
+    final int move = this.size - index;
+    if (move > 0) {
+      System.arraycopy(this.times, index, this.times, index + 1, move);
+      System.arraycopy(this.values, index, this.values, index + 1, move);
+      System.arraycopy(
+        this.interpolations,
+        index,
+        this.interpolations,
+        index + 1,
+        move);
+      System.arraycopy(
+        this.seg_inverse,
+        index,
+        this.seg_inverse,
+        index + 1,
+        move);
+      System.arraycopy(this.seg_base, index, this.seg_base, index + 1, move);
+      System.arraycopy(this.seg_delta, index, this.seg_delta, index + 1, move);
+      System.arraycopy(this.seg_curves, index, this.seg_curves, index + 1, move);
+      if (this.callbacks != null) {
+        System.arraycopy(this.callbacks, index, this.callbacks, index + 1, move);
+      }
+    }
+
+    this.times[index] = time;
+    this.values[index] = k.getValue();
+    this.interpolations[index] = (byte) k.getInterpolationType().ordinal();
+    this.callbackSet(index, k.hasCallback() ? k : null);
+
+    this.size = this.size + 1;
+    this.segmentsCompute(index - 1, index + 1);
+    this.seek_valid = false;
+    this.version = this.version + 1;
+  }
+
+  /**
+   * Add <code>count</code> keyframes to the track. The keyframe at batch
+   * index <code>b</code> has time <code>batch_times[b]</code>, value
+   * <code>batch_values[b]</code>, interpolation type ordinal
+   * <code>batch_interpolations[b]</code>, and, iff
+   * <code>batch_callbacks != null</code>, the keyframe
+   * <code>batch_callbacks[b]</code> whose callback will be executed. The
+   * batch does not need to be sorted. The batch is sorted and then merged
+   * into the track in a single pass, during which duplicate frames are
+   * detected. If a duplicate is detected, the track is left unmodified.
+   */
+
+  void keyframeAddAll(
+    final @Nonnull long[] batch_times,
+    final @Nonnull double[] batch_values,
+    final @Nonnull byte[] batch_interpolations,
+    final @CheckForNull Keyframe[] batch_callbacks,
+    final int count)
+    throws ConstraintError
+  {
+    if (count == 0) {
+      return;
+    }
+
+    final int[] order = KeyframeTrack.sortIndices(batch_times, count);
+    if ((this.size == 0)
+      || (batch_times[order[0]] > this.times[this.size - 1])) {
+      this.keyframeAppendAll(
+        batch_times,
+        batch_values,
+        batch_interpolations,
+        batch_callbacks,
+        order);
+      return;
+    }
+
+    final int total = this.size + count;
+    final int capacity = Math.max(total, KeyframeTrack.INITIAL_CAPACITY);
+    final long[] new_times = new long[capacity];
+    final double[] new_values = new double[capacity];
+    final byte[] new_interpolations = new byte[capacity];
+
+    Keyframe[] new_callbacks = null;
+    if ((this.callbacks != null) || (batch_callbacks != null)) {
+      new_callbacks = new Keyframe[capacity];
+    }
+
+    int i = 0;
+    int b = 0;
+    int o = 0;
+    long previous = 0;
+
+    while (o < total) {
+      final boolean take_batch;
+      if (i == this.size) {
+        take_batch = true;
+      } else if (b == count) {
+        take_batch = false;
+      } else {
+        take_batch = batch_times[order[b]] < this.times[i];
+      }
+
+      final long time;
+      if (take_batch) {
+        final int source = order[b];
+        time = batch_times[source];
+        new_times[o] = time;
+        new_values[o] = batch_values[source];
+        new_interpolations[o] = batch_interpolations[source];
+        if (batch_callbacks != null) {
+          new_callbacks[o] = batch_callbacks[source];
+        }
+        b = b + 1;
+      } else {
+        time = this.times[i];
+        new_times[o] = time;
+        new_values[o] = this.values[i];
+        new_interpolations[o] = this.interpolations[i];
+        if (this.callbacks != null) {
+          new_callbacks[o] = this.callbacks[i];
+        }
+        i = i + 1;
+      }
+
+      if ((o > 0) && (previous == time)) {
+        Constraints.constrainArbitrary(
+          false,
+          "Keyframe not added for frame '" + time + "'");
+      }
+
+      previous = time;
+      o = o + 1;
+    }
+
+    this.times = new_times;
+    this.values = new_values;
+    this.interpolations = new_interpolations;
+    this.callbacks = new_callbacks;
+    this.seg_inverse = new double[capacity];
+    this.seg_base = new double[capacity];
+    this.seg_delta = new double[capacity];
+    this.seg_curves = new Curve[capacity];
+    this.size = total;
+    this.segmentsCompute(0, total);
+    this.seek_valid = false;
+    this.version = this.version + 1;
+  }
+
+  /**
+   * Append the sorted batch given by <code>order</code>, all of which is
+   * known to be later than every existing keyframe, in place.
+   */
+
+  private void keyframeAppendAll(
+    final @Nonnull long[] batch_times,
+    final @Nonnull double[] batch_values,
+    final @Nonnull byte[] batch_interpolations,
+    final @CheckForNull Keyframe[] batch_callbacks,
+    final @Nonnull int[] order)
+    throws ConstraintError
+  {
+    final int count = order.length;
+    for (int b = 1; b < count; ++b) {
+      final long time = batch_times[order[b]];
+      if (batch_times[order[b - 1]] == time) {
+        Constraints.constrainArbitrary(
+          false,
+          "Keyframe not added for frame '" + time + "'");
+      }
+    }
+
+    this.ensureCapacity(this.size + count);
+
+    int o = this.size;
+    for (int b = 0; b < count; ++b) {
+      final int source = order[b];
+      this.times[o] = batch_times[source];
+      this.values[o] = batch_values[source];
+      this.interpolations[o] = batch_interpolations[source];
+      if (batch_callbacks != null) {
+        this.callbackSet(o, batch_callbacks[source]);
+      } else if (this.callbacks != null) {
+        this.callbacks[o] = null;
+      }
+      o = o + 1;
+    }
+
+    final int first = this.size;
+    this.size = o;
+    this.segmentsCompute(first - 1, o);
+    this.seek_valid = false;
+    this.version = this.version + 1;
+  }
+
+  /**
+   * Compute the coefficients of the segments starting at keyframes
+   * <code>[lower .. upper - 1]</code>, clipped to the keyframes of the
+   * track. The segment starting at a keyframe depends only on that keyframe
+   * and the next, so adding a keyframe at index <code>n</code> requires only
+   * the segments at <code>n - 1</code> and <code>n</code> to be recomputed.
+   */
+
+  private void segmentsCompute(
+    final int lower,
+    final int upper)
+  {
+    final int last = this.size - 1;
+    final int end = Math.min(upper, this.size);
+
+    for (int index = Math.max(lower, 0); index < end; ++index) {
+      final double v0 = this.values[index];
+      if (index == last) {
+        this.segmentSet(index, Curve.CURVE_CONSTANT, 0.0, v0, 0.0);
+        continue;
+      }
+
+      final double v1 = this.values[index + 1];
+      final double inverse =
+        1.0 / (double) (this.times[index + 1] - this.times[index]);
+
+      switch (this.interpolationType(index)) {
+        case INTERPOLATE_EXPONENTIAL:
+        {
+          this.segmentSet(index, Curve.CURVE_EXPONENTIAL, inverse, v0, v1 - v0);
+          break;
+        }
+        case INTERPOLATE_LINEAR:
+        {
+          this.segmentSet(index, Curve.CURVE_LINEAR, inverse, v0, v1 - v0);
+          break;
+        }
+        case INTERPOLATE_LOGARITHMIC:
+        {
+          this.segmentSet(index, Curve.CURVE_LOGARITHMIC, inverse, v0, v1 - v0);
+          break;
+        }
+        case INTERPOLATE_STEP_MAXIMUM:
+        {
+          this.segmentSet(index, Curve.CURVE_CONSTANT, 0.0, v1, 0.0);
+          break;
+        }
+        case INTERPOLATE_STEP_MINIMUM:
+        {
+          this.segmentSet(index, Curve.CURVE_CONSTANT, 0.0, v0, 0.0);
+          break;
+        }
+      }
+    }
+  }
+
+  private void segmentSet(
+    final int index,
+    final @Nonnull Curve curve,
+    final double inverse,
+    final double base,
+    final double delta)
+  {
+    this.seg_curves[index] = curve;
+    this.seg_inverse[index] = inverse;
+    this.seg_base[index] = base;
+    this.seg_delta[index] = delta;
+  }
+
+  /**
+   * Remove the first <code>count</code> keyframes from the track.
+   */
+
+  void keyframeRemoveFirst(
+    final int count)
+  {
+    assert (count >= 0) && (count <= this.size);
+    if (count == 0) {
+      return;
+    }
+
+    final int keep = this.size - count;
+    System.arraycopy(this.times, count, this.times, 0, keep);
+    System.arraycopy(this.values, count, this.values, 0, keep);
+    System.arraycopy(this.interpolations, count, this.interpolations, 0, keep);
+    System.arraycopy(this.seg_inverse, count, this.seg_inverse, 0, keep);
+    System.arraycopy(this.seg_base, count, this.seg_base, 0, keep);
+    System.arraycopy(this.seg_delta, count, this.seg_delta, 0, keep);
+    System.arraycopy(this.seg_curves, count, this.seg_curves, 0, keep);
+    if (this.callbacks != null) {
+      System.arraycopy(this.callbacks, count, this.callbacks, 0, keep);
+      for (int index = keep; index < this.size; ++index) {
+        this.callbacks[index] = null;
+      }
+    }
+
+    this.size = keep;
+    this.seek_valid = false;
+    this.version = this.version + 1;
+  }
+
+  /**
+   * Return the permutation that sorts the first <code>count</code> elements
+   * of <code>times</code> in ascending order. Already sorted input, which is
+   * by far the most common case, is detected in a single pass.
+   */
+
+  private static @Nonnull int[] sortIndices(
+    final @Nonnull long[] times,
+    final int count)
+  {
+    int[] order = new int[count];
+    boolean sorted = true;
+    for (int index = 0; index < count; ++index) {
+      order[index] = index;
+      if ((index > 0) && (times[index - 1] > times[index])) {
+        sorted = false;
+      }
+    }
+
+    if (sorted) {
+      return order;
+    }
+
+    int[] temp = new int[count];
+    for (int width = 1; width < count; width = width << 1) {
+      for (int low = 0; low < count; low = low + (width << 1)) {
+        final int middle = Math.min(low + width, count);
+        final int high = Math.min(low + (width << 1), count);
+
+        int l = low;
+        int r = middle;
+        for (int o = low; o < high; ++o) {
+          final boolean left =
+            (l < middle)
+              && ((r == high) || (times[order[l]] <= times[order[r]]));
+          if (left) {
+            temp[o] = order[l];
+            l = l + 1;
+          } else {
+            temp[o] = order[r];
+            r = r + 1;
+          }
+        }
+      }
+
+      final int[] swap = order;
+      order = temp;
+      temp = swap;
+    }
+
+    return order;
+  }
+
+  int size()
+  {
+    return this.size;
+  }
+
+  long time(
+    final int index)
+  {
+    return this.times[index];
+  }
+
+  double value(
+    final int index)
+  {
+    return this.values[index];
+  }
+
+  /**
+   * Return the number of modifications that have been made to the track.
+   * Derived data that refers to keyframe indices is stale if the version
+   * has changed since it was computed.
+   */
+
+  int version()
+  {
+    return this.version;
+  }
+}
@@ -0,0 +1,159 @@
+package com.io7m.jtimeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Type representing a bank of the values assigned by a {@link Timeline} in
+ * the most recently completed frame, indexed by
+ * {@link TrackHandle#getIndex()}, that may be read by any number of threads
+ * while the timeline is stepped by another.
+ * 
+ * The bank holds two copies of the values: the timeline writes each frame
+ * into the copy that readers are not expected to be reading, and then
+ * publishes it by incrementing a sequence number. A reader copies the most
+ * recently published frame and then checks that the timeline has not begun
+ * to overwrite it, retrying otherwise. Readers therefore always observe a
+ * complete frame, and neither readers nor the timeline ever block. A reader
+ * only retries if copying a frame takes longer than the timeline takes to
+ * step an entire frame.
+ * 
+ * Tracks that are not evaluated in a frame, such as those that have not
+ * reached their first keyframe, retain the last value assigned to them, or
+ * the value of the interpolable when the bank was enabled or the track was
+ * added.
+ * 
+ * @see Timeline#outputSetEnabled()
+ */
+
+public final class OutputBank
+{
+  /**
+   * The published copies of the values. Frame <code>n</code> is written to
+   * <code>frames[n % 2]</code>, with <code>writing</code> set to
+   * <code>n</code> before the values are written and
+   * <code>published</code> set to <code>n</code> after.
+   */
+
+  private static final class Buffers
+  {
+    private final int                        count;
+    private final @Nonnull AtomicLongArray[] frames;
+    private final @Nonnull AtomicLong        published;
+    private final @Nonnull AtomicLong        writing;
+
+    Buffers(
+      final int count,
+      final long sequence)
+    {
+      this.count = count;
+      this.frames = new AtomicLongArray[2];
+      this.frames[0] = new AtomicLongArray(count);
+      this.frames[1] = new AtomicLongArray(count);
+      this.published = new AtomicLong(sequence);
+      this.writing = new AtomicLong(sequence);
+    }
+  }
+
+  private volatile @Nonnull Buffers buffers;
+
+  OutputBank()
+  {
+    this.buffers = new Buffers(0, 0);
+  }
+
+  /**
+   * Return the number of tracks in the most recently published frame.
+   */
+
+  public int getTrackCount()
+  {
+    return this.buffers.count;
+  }
+
+  /**
+   * Publish the values of <code>f</code> as a new frame. Called by the
+   * stepping thread.
+   */
+
+  void publish(
+    final @Nonnull OutputFrame f)
+  {
+    final int n = f.getCount();
+    final double[] v = f.getValues();
+
+    final Buffers b = this.buffers;
+    if (b.count != n) {
+      final Buffers replacement = new Buffers(n, b.published.get());
+      final long sequence = replacement.published.get() + 1;
+      final AtomicLongArray frame = replacement.frames[(int) (sequence & 1)];
+      for (int index = 0; index < n; ++index) {
+        frame.lazySet(index, Double.doubleToRawLongBits(v[index]));
+      }
+      replacement.writing.set(sequence);
+      replacement.published.set(sequence);
+      this.buffers = replacement;
+      return;
+    }
+
+    final long sequence = b.published.get() + 1;
+    b.writing.set(sequence);
+    final AtomicLongArray frame = b.frames[(int) (sequence & 1)];
+    for (int index = 0; index < n; ++index) {
+      frame.lazySet(index, Double.doubleToRawLongBits(v[index]));
+    }
+    b.published.set(sequence);
+  }
+
+  /**
+   * Copy the values of the most recently published frame to
+   * <code>output</code>, writing the value of the track with index
+   * <code>n</code> to <code>output[n]</code>. Elements beyond the number of
+   * tracks in the frame are not modified. This function may be called from
+   * any thread, and never blocks.
+   * 
+   * @param output
+   *          The output array.
+   * @return The sequence number of the frame that was read, which increases
+   *         by one for every frame published. The value <code>0</code>
+   *         indicates that no frame has been published, in which case
+   *         <code>output</code> is not modified.
+   * @throws ConstraintError
+   *           Iff <code>output == null</code> or
+   *           <code>output.length &lt; getTrackCount()</code>.
+   */
+
+  public long read(
+    final @Nonnull double[] output)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(output, "Output");
+
+    for (;;) {
+      final Buffers b = this.buffers;
+      final int n = b.count;
+      Constraints.constrainArbitrary(
+        output.length >= n,
+        "Output length is at least the track count");
+
+      final long sequence = b.published.get();
+      if (sequence == 0) {
+        return 0;
+      }
+
+      final AtomicLongArray frame = b.frames[(int) (sequence & 1)];
+      for (int index = 0; index < n; ++index) {
+        output[index] = Double.longBitsToDouble(frame.get(index));
+      }
+
+      if (b.writing.get() <= (sequence + 1)) {
+        return sequence;
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.io7m.jtimeline;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The values assigned to the tracks of a {@link Timeline} in the current
+ * frame, indexed by {@link TrackHandle#getIndex()}, from which the
+ * {@link OutputBank} and {@link OutputSink} of the timeline are fed. Tracks
+ * that are not evaluated in a frame retain their previous values.
+ */
+
+final class OutputFrame
+{
+  private @Nonnull double[] values;
+  private int               count;
+
+  OutputFrame()
+  {
+    this.values = new double[16];
+    this.count = 0;
+  }
+
+  /**
+   * Set the number of tracks to <code>tracks</code>, which must be at least
+   * the current number of tracks.
+   */
+
+  void ensureTracks(
+    final int tracks)
+  {
+    if (tracks > this.values.length) {
+      final double[] v = new double[Math.max(tracks, this.values.length * 2)];
+      System.arraycopy(this.values, 0, v, 0, this.count);
+      this.values = v;
+    }
+    this.count = tracks;
+  }
+
+  int getCount()
+  {
+    return this.count;
+  }
+
+  @Nonnull double[] getValues()
+  {
+    return this.values;
+  }
+
+  /**
+   * Set the value of the track with index <code>index</code>. Called by the
+   * stepping thread, or by the threads of a parallel step for distinct
+   * tracks.
+   */
+
+  void set(
+    final int index,
+    final double x)
+  {
+    this.values[index] = x;
+  }
+}
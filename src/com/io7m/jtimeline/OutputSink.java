@@ -0,0 +1,32 @@
+package com.io7m.jtimeline;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Interface representing a receiver of the values of all tracks of a
+ * {@link Timeline} at once, at the end of each frame. Receiving a frame as
+ * a single array allows the values to be copied to their destination, such
+ * as a <code>java.nio.DoubleBuffer</code> or a column of a larger array, in
+ * a single bulk operation, instead of with one call to
+ * {@link InterpolableScalarReal#interpolableSet(double)} per value.
+ * 
+ * @see Timeline#outputSinkSetEnabled(OutputSink, boolean)
+ */
+
+public interface OutputSink
+{
+  /**
+   * Receive the values of frame <code>frame</code>. The value of the track
+   * with index <code>n</code> (see {@link TrackHandle#getIndex()}) is
+   * <code>values[n]</code>, for all <code>n</code> in
+   * <code>[0 .. count)</code>. Tracks that were not evaluated in the frame,
+   * such as those that have not reached their first keyframe, retain their
+   * previous values. The array is owned by the timeline, and is only valid
+   * until this function returns.
+   */
+
+  void outputFrame(
+    final long frame,
+    final @Nonnull double[] values,
+    final int count);
+}
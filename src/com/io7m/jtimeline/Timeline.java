@@ -1,19 +1,30 @@
 package com.io7m.jtimeline;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.NoSuchElementException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import com.io7m.jaux.Constraints;
 import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jaux.functional.Pair;
 
 /**
  * Type representing a generic timeline.
@@ -21,70 +32,134 @@ import com.io7m.jaux.Constraints.ConstraintError;
 
 public final class Timeline
 {
-  private static final class State
+  static final class State
   {
-    private static double interpolateKeyframes(
-      final long time_current,
-      final @Nonnull Keyframe k0,
-      final @Nonnull Keyframe k1)
+    static final int                                      SCHEDULE_IDLE    = 0;
+    static final int                                      SCHEDULE_ACTIVE  = 1;
+    static final int                                      SCHEDULE_WAITING = 2;
+
+    private @Nonnull KeyframeTrack                        keyframes;
+    private final @Nonnull AtomicReference<KeyframeTrack> keyframes_published;
+    private final @Nonnull InterpolableScalarReal         interpolable;
+    private double                                        bound_minimum;
+    private double                                        bound_maximum;
+    private boolean                                       bounded;
+    private boolean                                       bounds_captured;
+    private int                                           cursor;
+    private @CheckForNull Keyframe                        callback_due;
+    private @CheckForNull CallbackQueue                   callback_queue;
+    private @CheckForNull TrackHandle                     handle;
+    private @CheckForNull KeyframeStream                  stream;
+    private @CheckForNull OutputFrame                     output;
+    private int                                           output_index;
+    private boolean                                       assign;
+    private int                                           schedule;
+    private long                                          schedule_wake;
+    private boolean                                       schedule_woken;
+    private boolean                                       suppress;
+    private double                                        suppress_epsilon;
+    private boolean                                       suppress_pushed;
+    private double                                        suppress_value;
+
+    State(
+      final @Nonnull InterpolableScalarReal i)
     {
-      final InterpolationType it = k0.getInterpolationType();
-      final double kv0 = time_current - k0.getTime();
-      final double kv1 = k1.getTime() - k0.getTime();
-      final double position_factor = kv0 / kv1;
-      double value = 0.0;
+      this.interpolable = i;
+      this.keyframes = new KeyframeTrack();
+      this.keyframes_published =
+        new AtomicReference<KeyframeTrack>(this.keyframes);
+      this.bound_minimum = Double.NEGATIVE_INFINITY;
+      this.bound_maximum = Double.POSITIVE_INFINITY;
+      this.bounded = false;
+      this.bounds_captured = false;
+      this.cursor = -1;
+      this.callback_due = null;
+      this.callback_queue = null;
+      this.stream = null;
+      this.output = null;
+      this.output_index = 0;
+      this.assign = true;
+      this.schedule = State.SCHEDULE_IDLE;
+      this.schedule_wake = 0;
+      this.schedule_woken = false;
+      this.suppress = false;
+      this.suppress_epsilon = 0.0;
+      this.suppress_pushed = false;
+      this.suppress_value = 0.0;
+    }
 
-      switch (it) {
-        case INTERPOLATE_EXPONENTIAL:
-        {
-          value =
-            Interpolation.interpolateExponential(
-              position_factor,
-              k0.getValue(),
-              k1.getValue());
-          break;
-        }
-        case INTERPOLATE_LINEAR:
-        {
-          value =
-            Interpolation.interpolateLinear(
-              position_factor,
-              k0.getValue(),
-              k1.getValue());
-          break;
-        }
-        case INTERPOLATE_LOGARITHMIC:
-        {
-          value =
-            Interpolation.interpolateLogarithmic(
-              position_factor,
-              k0.getValue(),
-              k1.getValue());
-          break;
-        }
-        case INTERPOLATE_STEP_MAXIMUM:
-        {
-          value = k1.getValue();
-          break;
-        }
-        case INTERPOLATE_STEP_MINIMUM:
-        {
-          value = k0.getValue();
-          break;
-        }
+    /**
+     * Execute the callback of the keyframe <code>c</code>, reached while
+     * evaluating <code>frame</code>, or queue it for execution on the
+     * callback executor iff one has been set.
+     */
+
+    void callbackRun(
+      final @Nonnull Keyframe c,
+      final long frame)
+    {
+      final CallbackQueue q = this.callback_queue;
+      if (q != null) {
+        q.submit(c, frame);
+      } else {
+        c.callbackCall(this.interpolable, frame);
       }
+    }
+
+    /**
+     * Capture the current bounds of the interpolable, iff bounds capture is
+     * enabled. Values are then clamped to the captured bounds, rather than
+     * the interpolable being asked for its bounds on every frame, and are
+     * not clamped at all if the captured bounds are infinite.
+     */
 
-      return value;
+    void boundsRefresh()
+    {
+      if (this.bounds_captured) {
+        this.bound_minimum = this.interpolable.interpolableMinimum();
+        this.bound_maximum = this.interpolable.interpolableMaximum();
+        this.bounded =
+          (this.bound_minimum != Double.NEGATIVE_INFINITY)
+            || (this.bound_maximum != Double.POSITIVE_INFINITY);
+      }
     }
 
-    private final @Nonnull SortedMap<Long, Keyframe> keyframes;
-    private final @Nonnull InterpolableScalarReal    interpolable;
+    /**
+     * Return the clamped value of the state at <code>time</code>, or the
+     * current value of the interpolable if no keyframe exists at or before
+     * <code>time</code>. Callbacks are not executed.
+     */
 
-    State(
-      final @Nonnull InterpolableScalarReal i)
+    double evaluate(
+      final long time)
     {
-      this.interpolable = i;
-      this.keyframes = new TreeMap<Long, Keyframe>();
+      final int k0 = this.keyframes.indexSeek(time);
+      if (k0 < 0) {
+        return this.interpolable.interpolableGet();
+      }
+      return this.valueClamped(k0, time);
+    }
+
+    double getBoundMaximum()
+    {
+      if (this.bounds_captured) {
+        return this.bound_maximum;
+      }
+      return this.interpolable.interpolableMaximum();
+    }
+
+    double getBoundMinimum()
+    {
+      if (this.bounds_captured) {
+        return this.bound_minimum;
+      }
+      return this.interpolable.interpolableMinimum();
+    }
+
+    @Nonnull TrackHandle getHandle()
+    {
+      assert this.handle != null;
+      return this.handle;
     }
 
     @Nonnull InterpolableScalarReal getInterpolable()
@@ -92,79 +167,439 @@ public final class Timeline
       return this.interpolable;
     }
 
+    @CheckForNull KeyframeStream getStream()
+    {
+      return this.stream;
+    }
+
+    @Nonnull KeyframeTrack getKeyframes()
+    {
+      return this.keyframes;
+    }
+
+    int getSchedule()
+    {
+      return this.schedule;
+    }
+
+    long getScheduleWake()
+    {
+      return this.schedule_wake;
+    }
+
+    boolean isAssigned()
+    {
+      return this.assign;
+    }
+
+    boolean isBoundsCaptured()
+    {
+      return this.bounds_captured;
+    }
+
+    boolean isSuppressed()
+    {
+      return this.suppress;
+    }
+
+    /**
+     * Add the keyframe <code>k</code>. If <code>publish</code> is
+     * <code>true</code>, the keyframe is added to a copy of the most recently
+     * published version of the track, and the copy is published as a new
+     * version, retrying if another thread publishes a version first. The
+     * keyframes used for evaluation are not modified until
+     * {@link #keyframesAcquire()} is called.
+     */
+
     void keyframeAdd(
-      final @Nonnull Keyframe k)
+      final @Nonnull Keyframe k,
+      final boolean publish)
       throws ConstraintError
     {
-      final Long time = Long.valueOf(k.getTime());
-
       Constraints.constrainArbitrary(
-        this.keyframes.containsKey(time) == false,
-        "Keyframe not added for frame '" + time + "'");
+        this.stream == null,
+        "Interpolable keyframes are not streamed");
 
-      this.keyframes.put(time, k);
+      if (publish) {
+        final AtomicReference<KeyframeTrack> p = this.keyframes_published;
+        for (;;) {
+          final KeyframeTrack current = p.get();
+          final KeyframeTrack next = new KeyframeTrack(current);
+          next.keyframeAdd(k);
+          if (p.compareAndSet(current, next)) {
+            return;
+          }
+        }
+      }
+      this.keyframes.keyframeAdd(k);
     }
 
-    private @CheckForNull Keyframe keyframeSource(
-      final long time_current)
+    /**
+     * Add the given keyframes, publishing a new version of the track as
+     * {@link #keyframeAdd(Keyframe, boolean)} does iff <code>publish</code>
+     * is <code>true</code>.
+     */
+
+    void keyframeAddAll(
+      final @Nonnull long[] times,
+      final @Nonnull double[] values,
+      final @Nonnull byte[] interpolations,
+      final @CheckForNull Keyframe[] callbacks,
+      final int count,
+      final boolean publish)
+      throws ConstraintError
     {
-      final Long key = Long.valueOf(time_current);
+      Constraints.constrainArbitrary(
+        this.stream == null,
+        "Interpolable keyframes are not streamed");
 
-      if (this.keyframes.containsKey(key)) {
-        return this.keyframes.get(key);
+      if (publish) {
+        final AtomicReference<KeyframeTrack> p = this.keyframes_published;
+        for (;;) {
+          final KeyframeTrack current = p.get();
+          final KeyframeTrack next = new KeyframeTrack(current);
+          next.keyframeAddAll(times, values, interpolations, callbacks, count);
+          if (p.compareAndSet(current, next)) {
+            return;
+          }
+        }
       }
+      this.keyframes.keyframeAddAll(
+        times,
+        values,
+        interpolations,
+        callbacks,
+        count);
+      this.cursor = -1;
+    }
 
-      final SortedMap<Long, Keyframe> before = this.keyframes.headMap(key);
-      if (before.size() == 0) {
-        return null;
+    /**
+     * Use the most recently published version of the track for evaluation.
+     * 
+     * @return <code>true</code> iff the version in use changed.
+     */
+
+    boolean keyframesAcquire()
+    {
+      final KeyframeTrack p = this.keyframes_published.get();
+      if (p == this.keyframes) {
+        return false;
       }
-      return before.get(before.lastKey());
+      this.keyframes = p;
+      this.cursor = -1;
+      return true;
     }
 
-    private @CheckForNull Keyframe keyframeTarget(
-      final long time_current)
+    /**
+     * Assign <code>x</code> to the interpolable, unless suppression is
+     * enabled and <code>x</code> is within the suppression epsilon of the
+     * last value assigned.
+     */
+
+    void push(
+      final double x)
     {
-      final Long key = Long.valueOf(time_current + 1);
-      final SortedMap<Long, Keyframe> after = this.keyframes.tailMap(key);
+      if (this.suppress) {
+        if (this.suppress_pushed
+          && (Math.abs(x - this.suppress_value) <= this.suppress_epsilon)) {
+          return;
+        }
+        this.suppress_pushed = true;
+        this.suppress_value = x;
+      }
+      if (this.assign) {
+        this.interpolable.interpolableSet(x);
+      }
 
-      try {
-        final Long first = after.firstKey();
-        return after.get(first);
-      } catch (final NoSuchElementException e) {
-        return null;
+      final OutputFrame o = this.output;
+      if (o != null) {
+        o.set(this.output_index, x);
+      }
+    }
+
+    /**
+     * Evaluate the state at <code>time_current</code>. If
+     * <code>sequential</code> is <code>true</code>, then
+     * <code>time_current</code> is known to be later than the time of the
+     * previous evaluation and the cached cursor is used to locate the current
+     * keyframe.
+     * 
+     * @return The schedule that the state requires for the frames following
+     *         <code>time_current</code>, assuming that time moves forward:
+     *         {@link #SCHEDULE_WAITING} if the first keyframe has not yet
+     *         been reached (see {@link #getScheduleWake()}),
+     *         {@link #SCHEDULE_IDLE} if the last keyframe has been reached and
+     *         the assigned value can no longer change, and
+     *         {@link #SCHEDULE_ACTIVE} otherwise.
+     */
+
+    int run(
+      final long time_current,
+      final boolean sequential)
+      throws ConstraintError
+    {
+      final KeyframeTrack k = this.keyframes;
+      final int k0 = this.runLocate(time_current, sequential);
+      if (k0 < 0) {
+        return this.runScheduleBefore();
+      }
+      if (k.time(k0) == time_current) {
+        final Keyframe c = k.callbackGet(k0);
+        if (c != null) {
+          this.callbackRun(c, time_current);
+        }
       }
+
+      this.push(this.valueClamped(k0, time_current));
+      return this.runScheduleAfter(k0);
     }
 
-    void run(
+    /**
+     * Execute the callback recorded by
+     * {@link #runDeferred(long, boolean)} for <code>time_current</code>, if
+     * any.
+     */
+
+    void runCallbackDue(
       final long time_current)
       throws ConstraintError
     {
-      final Keyframe k0 = this.keyframeSource(time_current);
+      final Keyframe c = this.callback_due;
+      if (c != null) {
+        this.callback_due = null;
+        this.callbackRun(c, time_current);
+      }
+    }
+
+    /**
+     * Evaluate the state at <code>time_current</code> as
+     * {@link #run(long, boolean)} does, but record the callback of the
+     * keyframe at <code>time_current</code> instead of executing it. The
+     * recorded callback is executed by {@link #runCallbackDue(long)}. Any
+     * callback recorded for an earlier frame and not executed, because a
+     * previous callback raised an exception, is discarded. This function
+     * only modifies the state and its interpolable, and is therefore safe to
+     * call concurrently for distinct states.
+     */
+
+    int runDeferred(
+      final long time_current,
+      final boolean sequential)
+    {
+      this.callback_due = null;
+
+      final KeyframeTrack k = this.keyframes;
+      final int k0 = this.runLocate(time_current, sequential);
+      if (k0 < 0) {
+        return this.runScheduleBefore();
+      }
+      if (k.time(k0) == time_current) {
+        this.callback_due = k.callbackGet(k0);
+      }
+
+      this.push(this.valueClamped(k0, time_current));
+      return this.runScheduleAfter(k0);
+    }
+
+    private int runLocate(
+      final long time_current,
+      final boolean sequential)
+    {
+      final int k0;
+      if (sequential) {
+        k0 = this.keyframes.indexSourceFrom(this.cursor, time_current);
+      } else {
+        k0 = this.keyframes.indexSeek(time_current);
+      }
+      this.cursor = k0;
+      return k0;
+    }
 
-      if (k0 == null) {
-        return;
+    private int runScheduleAfter(
+      final int k0)
+    {
+      if (k0 == (this.keyframes.size() - 1)) {
+        return State.SCHEDULE_IDLE;
       }
-      if (k0.getTime() == time_current) {
-        k0.runCallback(this.interpolable);
+      return State.SCHEDULE_ACTIVE;
+    }
+
+    private int runScheduleBefore()
+    {
+      final KeyframeTrack k = this.keyframes;
+      if (k.size() == 0) {
+        return State.SCHEDULE_IDLE;
       }
+      this.schedule_wake = k.time(0);
+      return State.SCHEDULE_WAITING;
+    }
+
+    /**
+     * Execute callbacks on <code>e</code>, in order, iff <code>e</code> is
+     * not <code>null</code>, and on the calling thread otherwise.
+     */
 
-      double value;
-      final Keyframe k1 = this.keyframeTarget(time_current);
-      if (k1 != null) {
-        value = State.interpolateKeyframes(time_current, k0, k1);
+    void setCallbackExecutor(
+      final @CheckForNull Executor e)
+    {
+      if (e != null) {
+        this.callback_queue = new CallbackQueue(e, this.interpolable);
       } else {
-        value = k0.getValue();
+        this.callback_queue = null;
+      }
+    }
+
+    void setHandle(
+      final @Nonnull TrackHandle h)
+    {
+      this.handle = h;
+    }
+
+    /**
+     * Assign values to the interpolable iff <code>a</code> is
+     * <code>true</code>. Values are still written to the output frame, if
+     * any.
+     */
+
+    void setAssign(
+      final boolean a)
+    {
+      this.assign = a;
+    }
+
+    /**
+     * Write the values of the state to <code>o</code>, at the index of the
+     * track, iff <code>o != null</code>. The current value of the
+     * interpolable is written immediately.
+     */
+
+    void setBoundsCaptured(
+      final boolean enabled)
+    {
+      this.bounds_captured = enabled;
+      this.boundsRefresh();
+    }
+
+    void setOutput(
+      final @CheckForNull OutputFrame o)
+    {
+      this.output = o;
+      if (o != null) {
+        this.output_index = this.getHandle().getIndex();
+        o.set(this.output_index, this.interpolable.interpolableGet());
       }
+    }
+
+    void setStream(
+      final @Nonnull KeyframeStream s)
+    {
+      this.stream = s;
+    }
+
+    void setSchedule(
+      final int s)
+    {
+      this.schedule = s;
+      this.schedule_woken = false;
+    }
+
+    /**
+     * Record that the keyframes of the state were modified whilst it was
+     * active, so that it is kept active even if it has already reported
+     * that it no longer needs to be evaluated.
+     */
+
+    void setScheduleWoken()
+    {
+      this.schedule_woken = true;
+    }
+
+    /**
+     * Return <code>true</code> iff {@link #setScheduleWoken()} has been
+     * called since the schedule was last set, and clear the record.
+     */
+
+    boolean takeScheduleWoken()
+    {
+      final boolean woken = this.schedule_woken;
+      this.schedule_woken = false;
+      return woken;
+    }
+
+    void setSuppression(
+      final boolean enabled,
+      final double epsilon)
+    {
+      this.suppress = enabled;
+      this.suppress_epsilon = epsilon;
+      this.suppress_pushed = false;
+    }
+
+    private double valueClamped(
+      final int k0,
+      final long time)
+    {
+      final double x = this.keyframes.interpolate(k0, time);
+      if (this.bounds_captured) {
+        if (this.bounded) {
+          return Timeline.clamp(x, this.bound_minimum, this.bound_maximum);
+        }
+        return x;
+      }
+      return Timeline.clamp(
+        x,
+        this.interpolable.interpolableMinimum(),
+        this.interpolable.interpolableMaximum());
+    }
+  }
+
+  /**
+   * An entry in the queue of states waiting for their first keyframe. An
+   * entry is stale, and is ignored, if the state has been rescheduled since
+   * the entry was created.
+   */
+
+  private static final class StateWake
+  {
+    private final @Nonnull State state;
+    private final long           time;
+
+    StateWake(
+      final @Nonnull State state,
+      final long time)
+    {
+      this.state = state;
+      this.time = time;
+    }
 
-      value =
-        Timeline.clamp(
-          value,
-          this.interpolable.interpolableMinimum(),
-          this.interpolable.interpolableMaximum());
-      this.interpolable.interpolableSet(value);
+    boolean isCurrent()
+    {
+      return (this.state.getSchedule() == State.SCHEDULE_WAITING)
+        && (this.state.getScheduleWake() == this.time);
     }
   }
 
+  private static final @Nonnull Comparator<StateWake> STATE_WAKE_ORDER;
+  private static final int                            PARALLEL_TASK_MINIMUM;
+
+  static {
+    PARALLEL_TASK_MINIMUM = 512;
+    STATE_WAKE_ORDER = new Comparator<StateWake>() {
+      @Override public int compare(
+        final StateWake x,
+        final StateWake y)
+      {
+        if (x.time < y.time) {
+          return -1;
+        }
+        if (x.time > y.time) {
+          return 1;
+        }
+        return 0;
+      }
+    };
+  }
+
   static double clamp(
     final double x,
     final double min,
@@ -196,122 +631,868 @@ public final class Timeline
   }
 
   private boolean                                     time_loop_enabled;
+  private boolean                                     time_sequential;
   private long                                        time_current;
   private long                                        time_loop;
   private final @Nonnull HashMap<String, State>       interpolables;
+  private final @Nonnull ArrayList<State>             tracks;
+  private final @Nonnull ArrayList<State>             tracks_active;
+  private final @Nonnull PriorityQueue<StateWake>     tracks_waiting;
+  private boolean                                     tracks_scheduled;
+  private @Nonnull int[]                              tracks_schedules;
+  private @CheckForNull Executor                      parallel_executor;
+  private int                                         parallel_tasks;
   private final @Nonnull HashMap<String, Set<String>> interpolable_groups;
+  private final @Nonnull HashMap<String, ArrayList<State>> group_tracks;
+  private @CheckForNull TimelineBake                  bake;
+  private final @Nonnull ArrayList<State>             tracks_streamed;
+  private @CheckForNull CallbackIndex                 callback_index;
+  private @CheckForNull Executor                      callback_executor;
+  private volatile boolean                            edits_concurrent;
+  private @CheckForNull OutputBank                    output;
+  private @CheckForNull OutputFrame                   output_frame;
+  private @CheckForNull OutputSink                    output_sink;
+  private boolean                                     output_assign;
+  private final @Nonnull AtomicBoolean                edits_pending;
 
   public Timeline()
   {
     this.time_loop_enabled = false;
+    this.time_sequential = false;
     this.time_loop = 0;
     this.time_current = 0;
     this.interpolables = new HashMap<String, State>();
+    this.tracks = new ArrayList<State>();
+    this.tracks_active = new ArrayList<State>();
+    this.tracks_waiting =
+      new PriorityQueue<StateWake>(16, Timeline.STATE_WAKE_ORDER);
+    this.tracks_scheduled = false;
+    this.tracks_schedules = new int[16];
+    this.parallel_executor = null;
+    this.parallel_tasks = 1;
     this.interpolable_groups = new HashMap<String, Set<String>>();
+    this.group_tracks = new HashMap<String, ArrayList<State>>();
+    this.bake = null;
+    this.tracks_streamed = new ArrayList<State>();
+    this.callback_index = null;
+    this.callback_executor = null;
+    this.edits_concurrent = false;
+    this.edits_pending = new AtomicBoolean(false);
+    this.output = null;
+    this.output_frame = null;
+    this.output_sink = null;
+    this.output_assign = true;
   }
 
   /**
-   * Retrieve the current time in frames for the timeline.
+   * Sample the value of every interpolable value in the timeline at every
+   * frame in <code>[time_lower .. time_upper]</code>, and use the samples for
+   * subsequent calls to {@link #step()} at times within that range. Stepping
+   * at a baked time assigns the sampled values without interpolating, and
+   * executes the callbacks of any keyframes at that time in the order in
+   * which the interpolable values were added to the timeline. This is
+   * intended for looping timelines that replay the same frames repeatedly.
+   * 
+   * Any subsequent modification of the timeline, such as adding keyframes,
+   * adding interpolable values, or refreshing bounds, discards the samples.
+   * 
+   * @param time_lower
+   *          The first frame to sample.
+   * @param time_upper
+   *          The last frame to sample.
+   * @param single_precision
+   *          If <code>true</code>, samples are stored in single precision,
+   *          halving the size of the table at the cost of accuracy.
+   * @throws ConstraintError
+   *           Iff <code>time_lower &lt; 0</code>,
+   *           <code>time_upper &lt; time_lower</code>, or the table would
+   *           contain more than <code>Integer.MAX_VALUE</code> samples or
+   *           <code>Integer.MAX_VALUE</code> or more frames.
+   * @see #bakeDiscard()
    */
 
-  public long currentTimeGet()
+  public void bake(
+    final long time_lower,
+    final long time_upper,
+    final boolean single_precision)
+    throws ConstraintError
   {
-    return this.time_current;
+    Constraints.constrainRange(time_lower, 0, Long.MAX_VALUE);
+    Constraints.constrainRange(time_upper, time_lower, Long.MAX_VALUE);
+
+    final long span = time_upper - time_lower;
+    final long tracks = Math.max(this.tracks.size(), 1);
+    Constraints.constrainArbitrary(
+      (span < TimelineBake.FRAMES_MAXIMUM)
+        && (span < (Integer.MAX_VALUE / tracks)),
+      "Baked table size is at most Integer.MAX_VALUE");
+
+    this.bake =
+      new TimelineBake(this.tracks, time_lower, time_upper, single_precision);
   }
 
   /**
-   * Set the current time in frames for the timeline.
+   * Sample the value of every interpolable value in the timeline at every
+   * frame in <code>[time_lower .. time_upper]</code>, as
+   * {@link #bake(long, long, boolean)} does, and write the samples to
+   * <code>file</code> in a form that can be mapped into memory and shared
+   * between processes with {@link TimelineMapped#open(File)}. The samples
+   * held by the timeline itself are not affected.
+   * 
+   * @param file
+   *          The file to write.
+   * @param time_lower
+   *          The first frame to sample.
+   * @param time_upper
+   *          The last frame to sample.
+   * @param single_precision
+   *          If <code>true</code>, samples are stored in single precision.
+   * @throws ConstraintError
+   *           Iff <code>file == null</code>, <code>time_lower &lt; 0</code>,
+   *           <code>time_upper &lt; time_lower</code>, the range would
+   *           contain <code>Integer.MAX_VALUE</code> or more frames, or the
+   *           file would be too large to be mapped into memory.
+   * @throws IOException
+   *           Iff an I/O error occurs.
    */
 
-  public void currentTimeSet(
-    final long time)
+  public void bakeWrite(
+    final @Nonnull File file,
+    final long time_lower,
+    final long time_upper,
+    final boolean single_precision)
+    throws ConstraintError,
+      IOException
   {
-    this.time_current = time;
+    Constraints.constrainNotNull(file, "File");
+    Constraints.constrainRange(time_lower, 0, Long.MAX_VALUE);
+    Constraints.constrainRange(time_upper, time_lower, Long.MAX_VALUE);
+    Constraints.constrainArbitrary(
+      (time_upper - time_lower) < TimelineBake.FRAMES_MAXIMUM,
+      "Baked frame count is less than Integer.MAX_VALUE");
+    Constraints.constrainArbitrary(TimelineMapped.sizeOf(
+      this.tracks.size(),
+      (time_upper - time_lower) + 1,
+      single_precision) >= 0, "Baked file size is at most Integer.MAX_VALUE");
+
+    final TimelineBake b =
+      new TimelineBake(this.tracks, time_lower, time_upper, single_precision);
+    TimelineMapped.write(b, file);
   }
 
   /**
-   * Retrieve the set of {@link InterpolableScalarReal} values added to the
-   * timeline with group <code>group</code>.
-   * 
-   * @param group
-   *          The name of the group.
-   * @throws ConstraintError
-   *           Iff <code>group == null</code>.
+   * Discard the samples created by {@link #bake(long, long, boolean)}, if
+   * any.
    */
 
-  public ArrayList<InterpolableScalarReal> getGroup(
-    final @Nonnull String group)
-    throws ConstraintError
+  public void bakeDiscard()
   {
-    Constraints.constrainNotNull(group, "Group name");
-
-    final ArrayList<InterpolableScalarReal> is =
-      new ArrayList<InterpolableScalarReal>();
-    final Set<String> names = this.interpolable_groups.get(group);
+    this.bake = null;
+    this.tracks_scheduled = false;
+  }
 
-    for (final String name : names) {
-      final State state = this.interpolables.get(name);
-      is.add(state.getInterpolable());
-    }
+  /**
+   * Return <code>true</code> if the timeline currently has baked samples.
+   * 
+   * @see #bake(long, long, boolean)
+   */
 
-    return is;
+  public boolean bakeIsEnabled()
+  {
+    return this.bake != null;
   }
 
   /**
-   * Add the {@link InterpolableScalarReal} value <code>i</code> to the
-   * timeline. A value must be added before keyframes can be assigned.
+   * Return <code>true</code> if bounds capture is enabled for the
+   * interpolable value referred to by <code>h</code>.
    * 
-   * @param i
-   *          The {@link InterpolableScalarReal} value.
    * @throws ConstraintError
-   *           Iff any of the following conditions hold:
-   *           <ul>
-   *           <li><code>i == null</code></li>
-   *           <li><code>i</code> violates contracts on any of the
-   *           {@link InterpolableScalarReal} methods by, for example,
-   *           returning <code>null</code> for
-   *           {@link InterpolableScalarReal#interpolableGetName()}</li>
-   *           </ul>
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   * @see #boundsCaptureSetEnabled(TrackHandle)
    */
 
-  public void interpolableAdd(
-    final @Nonnull InterpolableScalarReal i)
+  public boolean boundsCaptureIsEnabled(
+    final @Nonnull TrackHandle h)
     throws ConstraintError
   {
-    Constraints.constrainNotNull(i, "Interpolable");
-
-    final String ident = Timeline.makeUniqueID(i);
-    Constraints.constrainArbitrary(
-      this.interpolables.containsKey(ident) == false,
-      "Interpolable '" + ident + "' not already added");
-
-    final State state = new State(i);
-    this.interpolables.put(ident, state);
+    return this.checkHandle(h).isBoundsCaptured();
+  }
 
-    final String group = i.interpolableGetGroup();
-    Set<String> names = null;
+  /**
+   * Disable bounds capture for the interpolable value referred to by
+   * <code>h</code>. The bounds of the value are retrieved from the
+   * interpolable whenever a value is clamped, which is the default.
+   * 
+   * @throws ConstraintError
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   * @see #boundsCaptureSetEnabled(TrackHandle)
+   */
 
-    if (this.interpolable_groups.containsKey(group)) {
-      names = this.interpolable_groups.get(group);
-      names.add(ident);
-    } else {
-      names = new TreeSet<String>();
-      names.add(ident);
-      this.interpolable_groups.put(group, names);
-    }
+  public void boundsCaptureSetDisabled(
+    final @Nonnull TrackHandle h)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    state.setBoundsCaptured(false);
+    this.scheduleWake(state);
   }
 
   /**
-   * Add the keyframe <code>k</code> for the {@link InterpolableScalarReal}
-   * value <code>i</code>. <code>i</code> must have been previously added to
-   * the timeline with
-   * {@link Timeline#interpolableAdd(InterpolableScalarReal)}.
+   * Enable bounds capture for the interpolable value referred to by
+   * <code>h</code>. The bounds of the value are retrieved immediately, and
+   * then only when explicitly refreshed with
+   * {@link #boundsRefresh(TrackHandle)} or {@link #boundsRefreshAll()},
+   * rather than whenever a value is clamped. Values are not clamped at all
+   * if both captured bounds are infinite. Bounds capture is only suitable
+   * for interpolable values whose bounds do not change, or whose changes
+   * are followed by a refresh.
    * 
-   * @param i
-   * @param k
    * @throws ConstraintError
-   *           Iff any of the following conditions hold:
-   *           <ul>
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   * @see #boundsCaptureSetDisabled(TrackHandle)
+   */
+
+  public void boundsCaptureSetEnabled(
+    final @Nonnull TrackHandle h)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    state.setBoundsCaptured(true);
+    this.scheduleWake(state);
+  }
+
+  /**
+   * Retrieve the current bounds of the interpolable value referred to by
+   * <code>h</code>, iff bounds capture is enabled for the value. Otherwise,
+   * the bounds are retrieved whenever a value is clamped, and this function
+   * has no effect.
+   * 
+   * @param h
+   *          The track handle.
+   * @throws ConstraintError
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   * @see InterpolableScalarReal#interpolableMinimum()
+   * @see InterpolableScalarReal#interpolableMaximum()
+   */
+
+  public void boundsRefresh(
+    final @Nonnull TrackHandle h)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    state.boundsRefresh();
+    this.bake = null;
+    this.scheduleWake(state);
+  }
+
+  /**
+   * Retrieve the current bounds of all interpolable values in the timeline
+   * for which bounds capture is enabled.
+   * 
+   * @see #boundsRefresh(TrackHandle)
+   */
+
+  public void boundsRefreshAll()
+  {
+    final ArrayList<State> ts = this.tracks;
+    final int count = ts.size();
+    for (int index = 0; index < count; ++index) {
+      ts.get(index).boundsRefresh();
+    }
+    this.bake = null;
+    this.tracks_scheduled = false;
+  }
+
+  private @Nonnull State checkHandle(
+    final @Nonnull TrackHandle h)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(h, "Track handle");
+    Constraints.constrainArbitrary(
+      h.getTimeline() == this,
+      "Track handle belongs to this timeline");
+    return h.getState();
+  }
+
+  /**
+   * Return the index of keyframe callbacks, building it if any keyframes
+   * have been added since it was last built.
+   */
+
+  private @Nonnull CallbackIndex callbackIndex()
+  {
+    final CallbackIndex existing = this.callback_index;
+    if (existing != null) {
+      return existing;
+    }
+    final CallbackIndex index = new CallbackIndex(this.tracks);
+    this.callback_index = index;
+    return index;
+  }
+
+  /**
+   * Retrieve the keyframes with callbacks at frames between
+   * <code>time_from</code> and <code>time_to</code> inclusive, paired with
+   * their interpolable values. If <code>time_from &lt;= time_to</code>, the
+   * keyframes are returned in order of time and then in the order in which
+   * the interpolable values were added to the timeline. Otherwise, they are
+   * returned in exactly the reverse order. This allows callers that move the
+   * current time with {@link #currentTimeSet(long)} to find the callbacks of
+   * the keyframes that they have skipped over in either direction.
+   * 
+   * The keyframes are located with an index of only those keyframes that
+   * have callbacks, built on the first query after any keyframes are added,
+   * so the cost of a query does not depend on the number of keyframes
+   * without callbacks.
+   * 
+   * @param time_from
+   *          The frame at which the query begins.
+   * @param time_to
+   *          The frame at which the query ends.
+   * @see #callbacksRun(long, long)
+   */
+
+  public @Nonnull List<Pair<InterpolableScalarReal, Keyframe>> callbacksGet(
+    final long time_from,
+    final long time_to)
+  {
+    final CallbackIndex index = this.callbackIndex();
+    final int lower = index.indexLower(Math.min(time_from, time_to));
+    final int upper = index.indexUpper(Math.max(time_from, time_to));
+
+    final ArrayList<Pair<InterpolableScalarReal, Keyframe>> result =
+      new ArrayList<Pair<InterpolableScalarReal, Keyframe>>(upper - lower);
+
+    if (time_from <= time_to) {
+      for (int i = lower; i < upper; ++i) {
+        result.add(new Pair<InterpolableScalarReal, Keyframe>(index
+          .state(i)
+          .getInterpolable(), index.keyframe(i)));
+      }
+    } else {
+      for (int i = upper - 1; i >= lower; --i) {
+        result.add(new Pair<InterpolableScalarReal, Keyframe>(index
+          .state(i)
+          .getInterpolable(), index.keyframe(i)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return <code>true</code> iff keyframe callbacks are executed
+   * asynchronously.
+   * 
+   * @see #callbacksSetAsynchronous(Executor)
+   */
+
+  public boolean callbacksIsAsynchronous()
+  {
+    return this.callback_executor != null;
+  }
+
+  /**
+   * Execute the callbacks of the keyframes at frames between
+   * <code>time_from</code> and <code>time_to</code> inclusive, in the order
+   * in which {@link #callbacksGet(long, long)} would return them, or queue
+   * them in that order if callbacks are executed asynchronously. Neither the
+   * current time nor any interpolable values are modified.
+   * 
+   * @param time_from
+   *          The frame at which execution begins.
+   * @param time_to
+   *          The frame at which execution ends.
+   * @throws ConstraintError
+   *           Iff an internal constraint error occurs.
+   */
+
+  public void callbacksRun(
+    final long time_from,
+    final long time_to)
+    throws ConstraintError
+  {
+    final CallbackIndex index = this.callbackIndex();
+    final int lower = index.indexLower(Math.min(time_from, time_to));
+    final int upper = index.indexUpper(Math.max(time_from, time_to));
+    index.run(lower, upper, time_from <= time_to, this.time_current);
+  }
+
+  /**
+   * Execute keyframe callbacks asynchronously on <code>executor</code>.
+   * Instead of executing the callbacks of the keyframes reached in a frame
+   * before the frame is complete, the timeline queues them and returns, so
+   * the time taken to step a frame does not depend on the time taken by its
+   * callbacks. The callbacks for any one interpolable value are executed in
+   * the order in which they were queued, and never concurrently with each
+   * other. Callbacks for different interpolable values may be executed
+   * concurrently and in any order. Callbacks that are rejected by the
+   * executor are executed on the calling thread.
+   * 
+   * As callbacks may execute after the timeline has moved on, a callback
+   * must not modify the timeline, and must not assume that the value of its
+   * interpolable is the value assigned in the frame in which the keyframe
+   * was reached. Callbacks queued before the executor is changed may execute
+   * concurrently with callbacks queued afterwards.
+   * 
+   * @param executor
+   *          The executor.
+   * @throws ConstraintError
+   *           Iff <code>executor == null</code>.
+   * @see #callbacksSetSynchronous()
+   */
+
+  public void callbacksSetAsynchronous(
+    final @Nonnull Executor executor)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(executor, "Executor");
+    this.callbacksSetExecutor(executor);
+  }
+
+  private void callbacksSetExecutor(
+    final @CheckForNull Executor executor)
+  {
+    this.callback_executor = executor;
+
+    final ArrayList<State> ts = this.tracks;
+    final int count = ts.size();
+    for (int index = 0; index < count; ++index) {
+      ts.get(index).setCallbackExecutor(executor);
+    }
+  }
+
+  /**
+   * Execute keyframe callbacks on the thread that steps the timeline, before
+   * the frame in which they are reached is complete. This is the default.
+   * Callbacks already queued for asynchronous execution are still executed
+   * by the executor.
+   * 
+   * @see #callbacksSetAsynchronous(Executor)
+   */
+
+  public void callbacksSetSynchronous()
+  {
+    this.callbacksSetExecutor(null);
+  }
+
+  /**
+   * Compile the timeline into a form suited to evaluating the values of
+   * very large numbers of interpolable values at once.
+   * 
+   * @see TimelineCompiled
+   */
+
+  public @Nonnull TimelineCompiled compile()
+  {
+    return new TimelineCompiled(this.tracks);
+  }
+
+  /**
+   * Retrieve the current time in frames for the timeline.
+   */
+
+  public long currentTimeGet()
+  {
+    return this.time_current;
+  }
+
+  /**
+   * Set the current time in frames for the timeline. The subsequent call to
+   * {@link #step()} locates the current keyframes of each interpolable value
+   * with a full search, rather than by advancing from the previous frame.
+   */
+
+  public void currentTimeSet(
+    final long time)
+  {
+    this.time_current = time;
+    this.time_sequential = false;
+    this.tracks_scheduled = false;
+  }
+
+  /**
+   * Return <code>true</code> iff concurrent keyframe editing is enabled.
+   * 
+   * @see #editsConcurrentSetEnabled()
+   */
+
+  public boolean editsConcurrentIsEnabled()
+  {
+    return this.edits_concurrent;
+  }
+
+  /**
+   * Disable concurrent keyframe editing. Keyframes added by other threads
+   * before this function is called are used from this point onwards. No
+   * other thread may add keyframes while this function executes, or after
+   * it returns.
+   * 
+   * @see #editsConcurrentSetEnabled()
+   */
+
+  public void editsConcurrentSetDisabled()
+  {
+    this.editsAcquire();
+    this.edits_concurrent = false;
+  }
+
+  /**
+   * Enable concurrent keyframe editing. While enabled, keyframes may be added
+   * with the <code>keyframeAdd</code> and <code>keyframeAddAll</code>
+   * functions from any number of threads, at the same time as the timeline
+   * is stepped by another thread, without any locking.
+   * 
+   * Instead of modifying the keyframes of a track in place, an edit copies
+   * the most recently published version of the track, adds the keyframes to
+   * the copy, and atomically publishes the copy as the new version. Edits of
+   * the same track by different threads are retried until they succeed, and
+   * so are never lost. The stepping thread switches to the most recently
+   * published versions at the start of each {@link #step()} (and of the
+   * other <code>step</code> functions), so every frame is evaluated against
+   * a consistent set of keyframes and is never blocked by an edit. Edits are
+   * therefore not observed by functions such as
+   * {@link #evaluate(TrackHandle, long)} or {@link #compile()} until the
+   * next step.
+   * 
+   * Every edit copies the whole track, so this mode suits tracks that are
+   * edited interactively rather than built up keyframe by keyframe. All other
+   * functions, including adding interpolable values, must still be called
+   * only from the stepping thread.
+   * 
+   * @see #editsConcurrentSetDisabled()
+   */
+
+  public void editsConcurrentSetEnabled()
+  {
+    this.edits_concurrent = true;
+  }
+
+  /**
+   * Switch every track to its most recently published version, if any
+   * track has been edited concurrently since the last call.
+   */
+
+  private void editsAcquire()
+  {
+    if (this.edits_pending.compareAndSet(true, false) == false) {
+      return;
+    }
+
+    final ArrayList<State> ts = this.tracks;
+    final int count = ts.size();
+    for (int index = 0; index < count; ++index) {
+      final State state = ts.get(index);
+      if (state.keyframesAcquire()) {
+        this.scheduleWake(state);
+      }
+    }
+  }
+
+  /**
+   * Return the value that the timeline would assign to the interpolable value
+   * referred to by <code>h</code> at frame <code>time</code>, without
+   * assigning it and without running any keyframe callbacks. If no keyframe
+   * exists for the value at or before <code>time</code>, the current value of
+   * the interpolable value is returned.
+   * 
+   * @param h
+   *          The track handle.
+   * @param time
+   *          The time in frames.
+   * @throws ConstraintError
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   */
+
+  public double evaluate(
+    final @Nonnull TrackHandle h,
+    final long time)
+    throws ConstraintError
+  {
+    return this.checkHandle(h).evaluate(time);
+  }
+
+  /**
+   * Retrieve the states of all interpolable values, in the order in which
+   * they were added.
+   */
+
+  @Nonnull List<State> getStates()
+  {
+    return this.tracks;
+  }
+
+  /**
+   * Retrieve the set of {@link InterpolableScalarReal} values added to the
+   * timeline with group <code>group</code>.
+   * 
+   * @param group
+   *          The name of the group.
+   * @throws ConstraintError
+   *           Iff <code>group == null</code>.
+   */
+
+  public ArrayList<InterpolableScalarReal> getGroup(
+    final @Nonnull String group)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(group, "Group name");
+
+    final ArrayList<InterpolableScalarReal> is =
+      new ArrayList<InterpolableScalarReal>();
+    final Set<String> names = this.interpolable_groups.get(group);
+
+    for (final String name : names) {
+      final State state = this.interpolables.get(name);
+      is.add(state.getInterpolable());
+    }
+
+    return is;
+  }
+
+  /**
+   * Retrieve a handle referring to all {@link InterpolableScalarReal} values
+   * in the timeline with group <code>group</code>, including those added
+   * after the handle is created.
+   * 
+   * @param group
+   *          The name of the group.
+   * @throws ConstraintError
+   *           Iff <code>group == null</code>.
+   * @see #stepGroup(GroupHandle)
+   */
+
+  public @Nonnull GroupHandle groupGetHandle(
+    final @Nonnull String group)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(group, "Group name");
+    return this.groupGetHandle(Collections.singletonList(group));
+  }
+
+  /**
+   * Retrieve a handle referring to all {@link InterpolableScalarReal} values
+   * in the timeline with any of the groups in <code>groups</code>, including
+   * those added after the handle is created. The values of each group are
+   * evaluated in the order in which the groups are given.
+   * 
+   * @param groups
+   *          The names of the groups.
+   * @throws ConstraintError
+   *           Iff <code>groups == null</code> or any of the given group names
+   *           are <code>null</code>.
+   * @see #stepGroup(GroupHandle)
+   */
+
+  public @Nonnull GroupHandle groupGetHandle(
+    final @Nonnull Collection<String> groups)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(groups, "Group names");
+
+    final Set<String> names = new LinkedHashSet<String>();
+    for (final String group : groups) {
+      names.add(Constraints.constrainNotNull(group, "Group name"));
+    }
+
+    final ArrayList<ArrayList<State>> lists =
+      new ArrayList<ArrayList<State>>(names.size());
+    for (final String group : names) {
+      lists.add(this.groupTracks(group));
+    }
+    return new GroupHandle(this, lists);
+  }
+
+  private @Nonnull ArrayList<State> groupTracks(
+    final @Nonnull String group)
+  {
+    ArrayList<State> states = this.group_tracks.get(group);
+    if (states == null) {
+      states = new ArrayList<State>();
+      this.group_tracks.put(group, states);
+    }
+    return states;
+  }
+
+  /**
+   * Add the {@link InterpolableScalarReal} value <code>i</code> to the
+   * timeline. A value must be added before keyframes can be assigned.
+   * 
+   * @param i
+   *          The {@link InterpolableScalarReal} value.
+   * @return A handle that can be used to refer to <code>i</code> in
+   *         subsequent operations on the timeline.
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
+   *           <li><code>i == null</code></li>
+   *           <li><code>i</code> violates contracts on any of the
+   *           {@link InterpolableScalarReal} methods by, for example,
+   *           returning <code>null</code> for
+   *           {@link InterpolableScalarReal#interpolableGetName()}</li>
+   *           </ul>
+   */
+
+  public @Nonnull TrackHandle interpolableAdd(
+    final @Nonnull InterpolableScalarReal i)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(i, "Interpolable");
+
+    final String ident = Timeline.makeUniqueID(i);
+    Constraints.constrainArbitrary(
+      this.interpolables.containsKey(ident) == false,
+      "Interpolable '" + ident + "' not already added");
+
+    final State state = new State(i);
+    final TrackHandle handle =
+      new TrackHandle(this, state, this.tracks.size());
+    state.setHandle(handle);
+    this.bake = null;
+    this.interpolables.put(ident, state);
+    this.tracks.add(state);
+
+    final String group = i.interpolableGetGroup();
+    Set<String> names = null;
+
+    if (this.interpolable_groups.containsKey(group)) {
+      names = this.interpolable_groups.get(group);
+      names.add(ident);
+    } else {
+      names = new TreeSet<String>();
+      names.add(ident);
+      this.interpolable_groups.put(group, names);
+    }
+    this.groupTracks(group).add(state);
+
+    final OutputFrame f = this.output_frame;
+    if (f != null) {
+      f.ensureTracks(this.tracks.size());
+      state.setOutput(f);
+    }
+    state.setAssign((this.output_sink == null) || this.output_assign);
+    state.setCallbackExecutor(this.callback_executor);
+    return handle;
+  }
+
+  /**
+   * Add the {@link InterpolableScalarReal} value <code>i</code> to the
+   * timeline, with keyframes streamed from the keyframe file
+   * <code>file</code> rather than held in memory. Keyframes are read on
+   * <code>executor</code> in windows of <code>window</code> keyframes, ahead
+   * of the current time, and keyframes more than a window behind the current
+   * time are discarded. {@link #step()} never waits for keyframes to be
+   * read: if the current time passes the last keyframe read so far, the
+   * value is held until the next window arrives. When the time is set with
+   * {@link #currentTimeSet(long)} or the timeline loops to a time outside of
+   * the keyframes read so far, they are discarded, and the value is held
+   * until the keyframes around the new time have been read.
+   * 
+   * Keyframes cannot be added to streamed values with
+   * {@link #keyframeAdd(TrackHandle, Keyframe)} and related functions. Only
+   * the keyframes read so far are visible to
+   * {@link #evaluate(TrackHandle, long)}, {@link #compile()}, and
+   * {@link #bake(long, long, boolean)}.
+   * 
+   * @param i
+   *          The {@link InterpolableScalarReal} value.
+   * @param file
+   *          The keyframe file.
+   * @param window
+   *          The number of keyframes read at a time. Windows larger than
+   *          {@link KeyframeFile#WINDOW_MAXIMUM} keyframes are read as
+   *          windows of that size.
+   * @param executor
+   *          The executor on which keyframes are read.
+   * @return A handle that can be used to refer to <code>i</code> in
+   *         subsequent operations on the timeline.
+   * @throws ConstraintError
+   *           Iff any of the arguments are <code>null</code>,
+   *           <code>window &lt; 1</code>, or <code>i</code> could not be
+   *           added with {@link #interpolableAdd(InterpolableScalarReal)}.
+   * @throws IOException
+   *           Iff <code>file</code> could not be opened, or is not a
+   *           keyframe file of a supported version.
+   * @see KeyframeFile
+   * @see #streamsClose()
+   */
+
+  public @Nonnull TrackHandle interpolableAddStreamed(
+    final @Nonnull InterpolableScalarReal i,
+    final @Nonnull File file,
+    final int window,
+    final @Nonnull Executor executor)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(i, "Interpolable");
+    Constraints.constrainNotNull(file, "File");
+    Constraints.constrainRange(window, 1, Integer.MAX_VALUE);
+    Constraints.constrainNotNull(executor, "Executor");
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    boolean added = false;
+    try {
+      final long records = KeyframeFile.check(raf.getChannel());
+      final TrackHandle h = this.interpolableAdd(i);
+      final State state = h.getState();
+      state.setStream(new KeyframeStream(
+        raf,
+        records,
+        Math.min(window, KeyframeFile.WINDOW_MAXIMUM),
+        executor,
+        state.getKeyframes(),
+        this.time_current));
+      this.tracks_streamed.add(state);
+      added = true;
+      return h;
+    } finally {
+      if (added == false) {
+        raf.close();
+      }
+    }
+  }
+
+  /**
+   * Retrieve the handle for the {@link InterpolableScalarReal} value
+   * <code>i</code>, which must have been previously added to the timeline.
+   * 
+   * @param i
+   *          The {@link InterpolableScalarReal} value.
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
+   *           <li><code>i == null</code></li>
+   *           <li><code>i</code> violates contracts on any of the
+   *           {@link InterpolableScalarReal} methods by, for example,
+   *           returning <code>null</code> for
+   *           {@link InterpolableScalarReal#interpolableGetName()}</li>
+   *           <li><code>i</code> was not previously added to the timeline</li>
+   *           </ul>
+   */
+
+  public @Nonnull TrackHandle interpolableGetHandle(
+    final @Nonnull InterpolableScalarReal i)
+    throws ConstraintError
+  {
+    return this.stateGet(i).getHandle();
+  }
+
+  /**
+   * Add the keyframe <code>k</code> for the {@link InterpolableScalarReal}
+   * value <code>i</code>. <code>i</code> must have been previously added to
+   * the timeline with
+   * {@link Timeline#interpolableAdd(InterpolableScalarReal)}.
+   * 
+   * @param i
+   * @param k
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
    *           <li><code>i == null</code></li>
    *           <li><code>k == null</code></li>
    *           <li><code>i</code> violates contracts on any of the
@@ -324,14 +1505,567 @@ public final class Timeline
    *           </ul>
    */
 
-  public void keyframeAdd(
-    final @Nonnull InterpolableScalarReal i,
-    final @Nonnull Keyframe k)
+  public void keyframeAdd(
+    final @Nonnull InterpolableScalarReal i,
+    final @Nonnull Keyframe k)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(i, "Interpolable");
+    Constraints.constrainNotNull(k, "Keyframe");
+
+    final State state = this.stateGet(i);
+    final boolean concurrent = this.edits_concurrent;
+    state.keyframeAdd(k, concurrent);
+    this.keyframesEdited(state, concurrent);
+  }
+
+  /**
+   * Add the keyframe <code>k</code> for the interpolable value referred to by
+   * <code>h</code>. This is equivalent to
+   * {@link #keyframeAdd(InterpolableScalarReal, Keyframe)}, but does not
+   * need to identify the interpolable value.
+   * 
+   * @param h
+   *          The track handle.
+   * @param k
+   *          The keyframe.
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
+   *           <li><code>h == null</code></li>
+   *           <li><code>k == null</code></li>
+   *           <li><code>h</code> was not returned by this timeline</li>
+   *           <li>A keyframe for <code>h</code> already exists at the frame
+   *           given by <code>k</code></li>
+   *           </ul>
+   */
+
+  public void keyframeAdd(
+    final @Nonnull TrackHandle h,
+    final @Nonnull Keyframe k)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    Constraints.constrainNotNull(k, "Keyframe");
+    final boolean concurrent = this.edits_concurrent;
+    state.keyframeAdd(k, concurrent);
+    this.keyframesEdited(state, concurrent);
+  }
+
+  /**
+   * Add all of the keyframes in <code>ks</code> for the interpolable value
+   * referred to by <code>h</code>. The keyframes may be given in any order.
+   * The keyframes are sorted and merged into the existing keyframes in a
+   * single pass, which is considerably faster than adding them individually.
+   * If any of the keyframes are rejected, none of them are added.
+   * 
+   * @param h
+   *          The track handle.
+   * @param ks
+   *          The keyframes.
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
+   *           <li><code>h == null</code></li>
+   *           <li><code>ks == null</code> or <code>ks</code> contains
+   *           <code>null</code></li>
+   *           <li><code>h</code> was not returned by this timeline</li>
+   *           <li>More than one keyframe for <code>h</code> would exist at any
+   *           given frame</li>
+   *           </ul>
+   */
+
+  public void keyframeAddAll(
+    final @Nonnull TrackHandle h,
+    final @Nonnull Collection<Keyframe> ks)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    Constraints.constrainNotNull(ks, "Keyframes");
+
+    final int count = ks.size();
+    final long[] times = new long[count];
+    final double[] values = new double[count];
+    final byte[] interpolations = new byte[count];
+    Keyframe[] callbacks = null;
+
+    int index = 0;
+    for (final Keyframe k : ks) {
+      Constraints.constrainNotNull(k, "Keyframe");
+      times[index] = k.getTime();
+      values[index] = k.getValue();
+      interpolations[index] = (byte) k.getInterpolationType().ordinal();
+      if (k.hasCallback()) {
+        if (callbacks == null) {
+          callbacks = new Keyframe[count];
+        }
+        callbacks[index] = k;
+      }
+      index = index + 1;
+    }
+
+    final boolean concurrent = this.edits_concurrent;
+    state.keyframeAddAll(
+      times,
+      values,
+      interpolations,
+      callbacks,
+      count,
+      concurrent);
+    this.keyframesEdited(state, concurrent);
+  }
+
+  /**
+   * Add keyframes without callbacks for the interpolable value referred to
+   * by <code>h</code>. The keyframe at index <code>n</code> has time
+   * <code>times[n]</code>, value <code>values[n]</code>, and interpolation
+   * type <code>types[n]</code>. The keyframes may be given in any order. The
+   * keyframes are sorted and merged into the existing keyframes in a single
+   * pass. If any of the keyframes are rejected, none of them are added.
+   * 
+   * @param h
+   *          The track handle.
+   * @param times
+   *          The keyframe times.
+   * @param values
+   *          The keyframe values.
+   * @param types
+   *          The keyframe interpolation types.
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
+   *           <li>Any of the parameters are <code>null</code></li>
+   *           <li><code>types</code> contains <code>null</code></li>
+   *           <li>The arrays are not all of the same length</li>
+   *           <li><code>h</code> was not returned by this timeline</li>
+   *           <li>More than one keyframe for <code>h</code> would exist at any
+   *           given frame</li>
+   *           </ul>
+   */
+
+  public void keyframeAddAll(
+    final @Nonnull TrackHandle h,
+    final @Nonnull long[] times,
+    final @Nonnull double[] values,
+    final @Nonnull InterpolationType[] types)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    Constraints.constrainNotNull(times, "Times");
+    Constraints.constrainNotNull(values, "Values");
+    Constraints.constrainNotNull(types, "Interpolation types");
+
+    final int count = times.length;
+    Constraints.constrainArbitrary(
+      (values.length == count) && (types.length == count),
+      "Array lengths are equal");
+
+    final byte[] interpolations = new byte[count];
+    for (int index = 0; index < count; ++index) {
+      final InterpolationType type =
+        Constraints.constrainNotNull(types[index], "Interpolation type");
+      interpolations[index] = (byte) type.ordinal();
+    }
+
+    final boolean concurrent = this.edits_concurrent;
+    state.keyframeAddAll(
+      times,
+      values,
+      interpolations,
+      null,
+      count,
+      concurrent);
+    this.keyframesEdited(state, concurrent);
+  }
+
+  /**
+   * Add the first <code>count</code> keyframes without callbacks given by
+   * the packed arrays <code>times</code>, <code>values</code>, and
+   * <code>interpolations</code> (interpolation type ordinals, which must be
+   * valid) to the interpolable value referred to by <code>h</code>.
+   */
+
+  void keyframeAddAllPacked(
+    final @Nonnull TrackHandle h,
+    final @Nonnull long[] times,
+    final @Nonnull double[] values,
+    final @Nonnull byte[] interpolations,
+    final int count)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    final boolean concurrent = this.edits_concurrent;
+    state.keyframeAddAll(
+      times,
+      values,
+      interpolations,
+      null,
+      count,
+      concurrent);
+    this.keyframesEdited(state, concurrent);
+  }
+
+  /**
+   * Retrieve the frame at which the timeline will rewind to frame
+   * <code>0</code>, iff looping is enabled.
+   * 
+   * @see #loopIsEnabled()
+   * @see #loopSetEnabled(long)
+   * @see #loopSetDisabled()
+   */
+
+  public long loopGetTime()
+  {
+    return this.time_loop;
+  }
+
+  /**
+   * Return <code>true</code> if looping is currently enabled.
+   * 
+   * @see #loopSetEnabled(long)
+   * @see #loopSetDisabled()
+   */
+
+  public boolean loopIsEnabled()
+  {
+    return this.time_loop_enabled;
+  }
+
+  /**
+   * Disable looping.
+   * 
+   * @see #loopSetEnabled(long)
+   */
+
+  public void loopSetDisabled()
+  {
+    this.time_loop_enabled = false;
+  }
+
+  /**
+   * Enable looping for the given timeline. The timeline will reset to frame
+   * <code>0</code> on the subsequent call to {@link Timeline#step()} after
+   * frame <code>frame</code> is reached.
+   * 
+   * @throws ConstraintError
+   *           Iff <code>frame &lt; 0</code>.
+   * 
+   * @see #loopIsEnabled()
+   * @see #loopGetTime()
+   * @see #loopSetDisabled()
+   */
+
+  public void loopSetEnabled(
+    final long frame)
+    throws ConstraintError
+  {
+    this.time_loop_enabled = true;
+    this.time_loop = Constraints.constrainRange(frame, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Retrieve the output bank of the timeline.
+   * 
+   * @throws ConstraintError
+   *           Iff the output bank is not enabled.
+   * @see #outputSetEnabled()
+   */
+
+  public @Nonnull OutputBank outputGetBank()
+    throws ConstraintError
+  {
+    final OutputBank o = this.output;
+    Constraints.constrainArbitrary(o != null, "Output bank is enabled");
+    assert o != null;
+    return o;
+  }
+
+  /**
+   * Return <code>true</code> iff the output bank is enabled.
+   * 
+   * @see #outputSetEnabled()
+   */
+
+  public boolean outputIsEnabled()
+  {
+    return this.output != null;
+  }
+
+  /**
+   * Disable the output bank. The bank returned by {@link #outputGetBank()}
+   * remains readable, but is no longer updated.
+   */
+
+  public void outputSetDisabled()
+  {
+    this.output = null;
+    this.outputRefresh();
+  }
+
+  /**
+   * Enable the output bank, if it is not already enabled. Every value
+   * assigned to an interpolable value is then also written to the bank, and
+   * at the end of each call to {@link #step()} (and of the other
+   * <code>step</code> functions), the values are published to the bank as a
+   * complete frame. Other threads may read the most recently published frame
+   * with {@link OutputBank#read(double[])} at any time, without blocking the
+   * stepping thread. The current values of all interpolable values are
+   * published as the first frame when the bank is enabled.
+   * 
+   * @see #outputGetBank()
+   */
+
+  public void outputSetEnabled()
+  {
+    if (this.output != null) {
+      return;
+    }
+
+    final OutputBank o = new OutputBank();
+    this.output = o;
+    this.outputRefresh();
+
+    final OutputFrame f = this.output_frame;
+    assert f != null;
+    o.publish(f);
+  }
+
+  /**
+   * Publish the values of the frame at <code>time</code> to the output bank
+   * and output sink, if any.
+   */
+
+  private void outputPublish(
+    final long time)
+  {
+    final OutputFrame f = this.output_frame;
+    if (f == null) {
+      return;
+    }
+
+    final OutputBank o = this.output;
+    if (o != null) {
+      o.publish(f);
+    }
+    final OutputSink k = this.output_sink;
+    if (k != null) {
+      k.outputFrame(time, f.getValues(), f.getCount());
+    }
+  }
+
+  /**
+   * Create the output frame if either the output bank or the output sink is
+   * enabled, and discard it otherwise, and update whether each state assigns
+   * its values to its interpolable. If that changes, every state is evaluated
+   * again on the next frame, as after {@link #currentTimeSet(long)}, so that
+   * states that stopped being evaluated while values were not assigned
+   * assign their values again.
+   */
+
+  private void outputRefresh()
+  {
+    final ArrayList<State> ts = this.tracks;
+    final int count = ts.size();
+    final boolean required =
+      (this.output != null) || (this.output_sink != null);
+
+    if (required && (this.output_frame == null)) {
+      final OutputFrame f = new OutputFrame();
+      f.ensureTracks(count);
+      for (int index = 0; index < count; ++index) {
+        ts.get(index).setOutput(f);
+      }
+      this.output_frame = f;
+    } else if ((required == false) && (this.output_frame != null)) {
+      for (int index = 0; index < count; ++index) {
+        ts.get(index).setOutput(null);
+      }
+      this.output_frame = null;
+    }
+
+    final boolean assign = (this.output_sink == null) || this.output_assign;
+    for (int index = 0; index < count; ++index) {
+      final State state = ts.get(index);
+      if (state.isAssigned() != assign) {
+        state.setAssign(assign);
+        this.time_sequential = false;
+        this.tracks_scheduled = false;
+      }
+    }
+  }
+
+  /**
+   * Return <code>true</code> iff an output sink is set.
+   * 
+   * @see #outputSinkSetEnabled(OutputSink, boolean)
+   */
+
+  public boolean outputSinkIsEnabled()
+  {
+    return this.output_sink != null;
+  }
+
+  /**
+   * Remove the output sink, if any. Values are assigned to interpolable
+   * values again from the next frame.
+   */
+
+  public void outputSinkSetDisabled()
+  {
+    this.output_sink = null;
+    this.output_assign = true;
+    this.outputRefresh();
+  }
+
+  /**
+   * Deliver the values of all tracks to <code>sink</code> at the end of each
+   * call to {@link #step()} (and of the other <code>step</code> functions),
+   * as a single array indexed by {@link TrackHandle#getIndex()}. If
+   * <code>assign</code> is <code>false</code>, values are not assigned to
+   * the interpolable values with
+   * {@link InterpolableScalarReal#interpolableSet(double)} while the sink is
+   * set, so the sink is the only destination of the values and no call is
+   * made per value. Keyframe callbacks are still executed. The array
+   * initially holds the current values of the interpolable values.
+   * 
+   * @param sink
+   *          The sink.
+   * @param assign
+   *          Whether values are also assigned to the interpolable values.
+   * @throws ConstraintError
+   *           Iff <code>sink == null</code>.
+   * @see #outputSinkSetDisabled()
+   */
+
+  public void outputSinkSetEnabled(
+    final @Nonnull OutputSink sink,
+    final boolean assign)
+    throws ConstraintError
+  {
+    this.output_sink = Constraints.constrainNotNull(sink, "Sink");
+    this.output_assign = assign;
+    this.outputRefresh();
+  }
+
+  /**
+   * Return <code>true</code> if parallel stepping is currently enabled.
+   * 
+   * @see #parallelSetEnabled(Executor, int)
+   */
+
+  public boolean parallelIsEnabled()
+  {
+    return this.parallel_executor != null;
+  }
+
+  /**
+   * Disable parallel stepping.
+   * 
+   * @see #parallelSetEnabled(Executor, int)
+   */
+
+  public void parallelSetDisabled()
+  {
+    this.parallel_executor = null;
+    this.parallel_tasks = 1;
+  }
+
+  /**
+   * Enable parallel stepping. Subsequent calls to {@link #step()} divide the
+   * interpolable values that require evaluation into at most
+   * <code>tasks</code> contiguous ranges, and evaluate the ranges
+   * concurrently: one on the calling thread, and the rest on
+   * <code>executor</code>. Small timelines are still evaluated on the calling
+   * thread alone.
+   * 
+   * When stepping in parallel,
+   * {@link InterpolableScalarReal#interpolableSet(double)} may be called from
+   * any thread, although never concurrently for the same interpolable value.
+   * Keyframe callbacks are executed on the calling thread, in a deterministic
+   * order, after all values for the frame have been assigned. This holds
+   * for every frame while parallel stepping is enabled, including frames in
+   * which so few values require evaluation that they are evaluated on the
+   * calling thread alone, baked frames, and frames stepped with
+   * {@link #stepGroup(GroupHandle)}.
+   * 
+   * @param executor
+   *          The executor, such as a <code>ForkJoinPool</code>.
+   * @param tasks
+   *          The maximum number of concurrent tasks.
+   * @throws ConstraintError
+   *           Iff <code>executor == null</code> or <code>tasks &lt; 1</code>.
+   * @see #parallelSetDisabled()
+   */
+
+  public void parallelSetEnabled(
+    final @Nonnull Executor executor,
+    final int tasks)
     throws ConstraintError
   {
-    Constraints.constrainNotNull(i, "Interpolable");
-    Constraints.constrainNotNull(k, "Keyframe");
+    this.parallel_executor = Constraints.constrainNotNull(executor, "Executor");
+    this.parallel_tasks =
+      Constraints.constrainRange(tasks, 1, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Make every state active, so that each is evaluated on the next frame and
+   * then reports the schedule that it requires.
+   */
+
+  private void scheduleReset()
+  {
+    this.tracks_active.clear();
+    this.tracks_waiting.clear();
+
+    final ArrayList<State> ts = this.tracks;
+    final int count = ts.size();
+    for (int index = 0; index < count; ++index) {
+      final State state = ts.get(index);
+      state.setSchedule(State.SCHEDULE_ACTIVE);
+      this.tracks_active.add(state);
+    }
+
+    this.tracks_scheduled = true;
+  }
+
+  /**
+   * Record that the keyframes of <code>state</code> have been modified,
+   * either in place or, iff <code>concurrent</code> is <code>true</code>, by
+   * publishing a new version of the track. The flag is the one with which
+   * the keyframes were added, so that an edit is never published by one path
+   * and recorded by the other.
+   */
+
+  private void keyframesEdited(
+    final @Nonnull State state,
+    final boolean concurrent)
+  {
+    if (concurrent) {
+      this.edits_pending.set(true);
+    } else {
+      this.scheduleWake(state);
+    }
+  }
+
+  private void scheduleWake(
+    final @Nonnull State state)
+  {
+    this.bake = null;
+    this.callback_index = null;
+    if (this.tracks_scheduled) {
+      if (state.getSchedule() != State.SCHEDULE_ACTIVE) {
+        state.setSchedule(State.SCHEDULE_ACTIVE);
+        this.tracks_active.add(state);
+      } else {
+        state.setScheduleWoken();
+      }
+    }
+  }
 
+  private @Nonnull State stateGet(
+    final @Nonnull InterpolableScalarReal i)
+    throws ConstraintError
+  {
     final String ident = Timeline.makeUniqueID(i);
     Constraints.constrainArbitrary(
       this.interpolables.containsKey(ident),
@@ -339,92 +2073,604 @@ public final class Timeline
 
     final State state = this.interpolables.get(ident);
     assert state != null;
-
-    state.keyframeAdd(k);
+    return state;
   }
 
   /**
-   * Retrieve the frame at which the timeline will rewind to frame
-   * <code>0</code>, iff looping is enabled.
+   * Step the timeline forward by one frame. The function executes all
+   * keyframes for the current time, and then advances the time forward by one
+   * frame.
    * 
-   * @see #loopIsEnabled()
-   * @see #loopSetEnabled(long)
-   * @see #loopSetDisabled()
+   * Interpolable values that have not yet reached their first keyframe, and
+   * values that have passed their last keyframe, are not evaluated. Such
+   * values are evaluated again when the time is set with
+   * {@link #currentTimeSet(long)}, when the timeline loops, or when their
+   * keyframes are modified.
+   * 
+   * @throws ConstraintError
+   *           Iff an internal constraint error occurs.
    */
 
-  public long loopGetTime()
+  public void step()
+    throws ConstraintError
   {
-    return this.time_loop;
+    try {
+      this.editsAcquire();
+      this.streamsUpdate(this.time_current, this.time_sequential);
+
+      final TimelineBake b = this.bake;
+      if ((b != null) && b.contains(this.time_current)) {
+        this.tracks_scheduled = false;
+        b.run(
+          this.time_current,
+          this.time_sequential,
+          this.parallel_executor != null);
+      } else {
+        if (this.tracks_scheduled == false) {
+          this.scheduleReset();
+        }
+        this.stepActive(this.time_current, this.time_sequential);
+      }
+
+      this.outputPublish(this.time_current);
+    } finally {
+      this.stepAdvance();
+    }
   }
 
   /**
-   * Return <code>true</code> if looping is currently enabled.
-   * 
-   * @see #loopSetEnabled(long)
-   * @see #loopSetDisabled()
+   * Advance the time forward by one frame, looping if necessary.
    */
 
-  public boolean loopIsEnabled()
+  private void stepAdvance()
   {
-    return this.time_loop_enabled;
+    this.time_current = this.time_current + 1;
+    this.time_sequential = true;
+    if (this.time_loop_enabled) {
+      if (this.time_current > this.time_loop) {
+        this.time_current = 0;
+        this.time_sequential = false;
+        this.tracks_scheduled = false;
+      }
+    }
   }
 
   /**
-   * Disable looping.
+   * Step the timeline forward by <code>frames</code> frames. The time
+   * advances as it would by calling {@link #step()} <code>frames</code>
+   * times, looping exactly as {@link #step()} does if looping is enabled,
+   * but interpolable values are evaluated only at the last of the frames.
+   * The callbacks of keyframes at the skipped frames are executed in order
+   * of time, and then in the order in which the interpolable values were
+   * added to the timeline, unless <code>callbacks</code> is
+   * <code>false</code>, in which case they are not executed at all. This is
+   * not necessarily the order in which {@link #step()} executes callbacks
+   * for the same frame, which depends on when each value last became active.
+   * Callbacks executed for skipped frames observe the values assigned before
+   * the call, not those of the frame at which the keyframe occurs, and
+   * callbacks given as a {@link KeyframeCallback} are passed the last of the
+   * frames as the frame being evaluated.
    * 
-   * @see #loopSetEnabled(long)
+   * If the time loops and the last of the frames is earlier than the first
+   * keyframe of an interpolable value, that value keeps the value it had
+   * before the call, rather than the value that {@link #step()} would have
+   * assigned to it at the loop time.
+   * 
+   * @param frames
+   *          The number of frames.
+   * @param callbacks
+   *          Whether to execute the callbacks of keyframes at skipped
+   *          frames.
+   * @throws ConstraintError
+   *           Iff <code>frames &lt; 1</code>, or looping is disabled and
+   *           stepping would advance the time past
+   *           <code>Long.MAX_VALUE</code>.
    */
 
-  public void loopSetDisabled()
+  public void stepBy(
+    final long frames,
+    final boolean callbacks)
+    throws ConstraintError
   {
-    this.time_loop_enabled = false;
+    Constraints.constrainRange(frames, 1, Long.MAX_VALUE);
+    if (this.time_loop_enabled == false) {
+      Constraints.constrainArbitrary(
+        this.time_current <= (Long.MAX_VALUE - (frames - 1)),
+        "Time does not overflow");
+    }
+    this.stepSkip(frames, callbacks);
   }
 
   /**
-   * Enable looping for the given timeline. The timeline will reset to frame
-   * <code>0</code> on the subsequent call to {@link Timeline#step()} after
-   * frame <code>frame</code> is reached.
+   * Step the timeline forward to frame <code>frame</code>, as if by calling
+   * {@link #stepBy(long, boolean)} with the number of frames required to
+   * evaluate <code>frame</code>, with the same ordering of callbacks and the
+   * same treatment of values whose first keyframe has not been reached after
+   * looping. On return, the current time is the frame after
+   * <code>frame</code>, or <code>0</code> if the timeline looped at
+   * <code>frame</code>. If looping is enabled and <code>frame</code> is
+   * earlier than the current time, the timeline steps forward through the
+   * loop point to <code>frame</code>.
    * 
+   * @param frame
+   *          The frame to evaluate.
+   * @param callbacks
+   *          Whether to execute the callbacks of keyframes at skipped
+   *          frames.
    * @throws ConstraintError
-   *           Iff <code>frame &lt; 0</code>.
-   * 
-   * @see #loopIsEnabled()
-   * @see #loopGetTime()
-   * @see #loopSetDisabled()
+   *           Iff <code>frame</code> cannot be reached by stepping forward
+   *           from the current time: that is, iff looping is disabled and
+   *           <code>frame</code> is earlier than the current time, or looping
+   *           is enabled and <code>frame</code> is later than both the loop
+   *           time and the current time. Also iff looping is disabled and
+   *           reaching <code>frame</code> would take more than
+   *           <code>Long.MAX_VALUE</code> frames.
    */
 
-  public void loopSetEnabled(
-    final long frame)
+  public void stepTo(
+    final long frame,
+    final boolean callbacks)
     throws ConstraintError
   {
-    this.time_loop_enabled = true;
-    this.time_loop = Constraints.constrainRange(frame, 0, Long.MAX_VALUE);
+    final long current = this.time_current;
+
+    if (this.time_loop_enabled) {
+      final long end = Math.max(current, this.time_loop);
+      if ((frame >= current) && (frame <= end)) {
+        this.stepSkip((frame - current) + 1, callbacks);
+      } else {
+        Constraints.constrainRange(frame, 0, this.time_loop);
+        this.stepSkip((end - current) + 1 + frame + 1, callbacks);
+      }
+    } else {
+      Constraints.constrainRange(frame, current, Long.MAX_VALUE);
+      Constraints.constrainArbitrary(
+        (current > 0) || (frame < (Long.MAX_VALUE + current)),
+        "Frame count does not overflow");
+      this.stepSkip((frame - current) + 1, callbacks);
+    }
   }
 
   /**
-   * Step the timeline forward by one frame. The function executes all
-   * keyframes for the current time, and then advances the time forward by one
-   * frame.
+   * Skip <code>frames - 1</code> frames, executing the callbacks of their
+   * keyframes if <code>callbacks</code> is <code>true</code>, and then step
+   * once. Whole repetitions of the loop are not visited individually: the
+   * callbacks of a single repetition are collected once and executed once
+   * per repetition.
+   */
+
+  private void stepSkip(
+    final long frames,
+    final boolean callbacks)
+    throws ConstraintError
+  {
+    this.editsAcquire();
+
+    final CallbackIndex index = callbacks ? this.callbackIndex() : null;
+    final boolean loop = this.time_loop_enabled;
+    final long loop_time = this.time_loop;
+    long current = this.time_current;
+    long remaining = frames - 1;
+
+    final long destination;
+    final long first_end = Math.max(current, loop_time);
+    if (loop && ((first_end - current) < remaining)) {
+      final long wrapped = remaining - ((first_end - current) + 1);
+      destination = wrapped % (loop_time + 1);
+    } else {
+      destination = current + remaining;
+    }
+
+    while (remaining > 0) {
+      final long last;
+      final boolean wraps;
+      final long end = Math.max(current, loop_time);
+      if (loop && ((end - current) < remaining)) {
+        last = end;
+        wraps = true;
+      } else {
+        last = current + (remaining - 1);
+        wraps = false;
+      }
+
+      if (index != null) {
+        index.run(
+          index.indexLower(current),
+          index.indexUpper(last),
+          true,
+          destination);
+      }
+      remaining = remaining - ((last - current) + 1);
+
+      if (wraps) {
+        current = 0;
+        if (remaining > loop_time) {
+          final long repeats = remaining / (loop_time + 1);
+          if (index != null) {
+            final int lower = index.indexLower(0);
+            final int upper = index.indexUpper(loop_time);
+            if (lower < upper) {
+              for (long r = 0; r < repeats; ++r) {
+                index.run(lower, upper, true, destination);
+              }
+            }
+          }
+          remaining = remaining - (repeats * (loop_time + 1));
+        }
+      } else {
+        current = last + 1;
+      }
+    }
+
+    assert current == destination;
+    this.time_current = current;
+    if (frames > 1) {
+      this.time_sequential = false;
+      this.tracks_scheduled = false;
+    }
+    this.step();
+  }
+
+  /**
+   * Evaluate all active states at <code>time</code>, after activating any
+   * waiting states whose first keyframe has been reached. States that report
+   * that they no longer need to be evaluated are removed from the active
+   * list, preserving the order of the remaining states. States woken by
+   * keyframe callbacks during evaluation are retained, including states that
+   * had already been evaluated in the frame and reported that they no longer
+   * need to be evaluated.
+   */
+
+  private void stepActive(
+    final long time,
+    final boolean sequential)
+    throws ConstraintError
+  {
+    final ArrayList<State> active = this.tracks_active;
+    final PriorityQueue<StateWake> waiting = this.tracks_waiting;
+
+    while (waiting.isEmpty() == false) {
+      final StateWake w = waiting.peek();
+      if (w.time > time) {
+        break;
+      }
+      waiting.poll();
+      if (w.isCurrent()) {
+        w.state.setSchedule(State.SCHEDULE_ACTIVE);
+        active.add(w.state);
+      }
+    }
+
+    boolean completed = false;
+    try {
+      final int count = active.size();
+      if (this.tracks_schedules.length < count) {
+        this.tracks_schedules = new int[count + (count >> 1)];
+      }
+
+      final int[] schedules = this.tracks_schedules;
+      final Executor executor = this.parallel_executor;
+      if (executor != null) {
+        if (count >= (Timeline.PARALLEL_TASK_MINIMUM * 2)) {
+          this.stepParallel(executor, time, sequential, count);
+        } else {
+          Timeline.stepRange(active, schedules, 0, count, time, sequential);
+        }
+        for (int index = 0; index < count; ++index) {
+          active.get(index).runCallbackDue(time);
+        }
+      } else {
+        for (int index = 0; index < count; ++index) {
+          schedules[index] = active.get(index).run(time, sequential);
+        }
+      }
+
+      int kept = 0;
+      for (int index = 0; index < count; ++index) {
+        final State state = active.get(index);
+        final int schedule = schedules[index];
+        final boolean woken = state.takeScheduleWoken();
+        if ((schedule == State.SCHEDULE_ACTIVE) || woken) {
+          active.set(kept, state);
+          kept = kept + 1;
+        } else {
+          state.setSchedule(schedule);
+          if (schedule == State.SCHEDULE_WAITING) {
+            waiting.add(new StateWake(state, state.getScheduleWake()));
+          }
+        }
+      }
+
+      final int end = active.size();
+      for (int index = count; index < end; ++index) {
+        active.set(kept, active.get(index));
+        kept = kept + 1;
+      }
+      for (int index = end - 1; index >= kept; --index) {
+        active.remove(index);
+      }
+
+      completed = true;
+    } finally {
+      if (completed == false) {
+        this.tracks_scheduled = false;
+      }
+    }
+  }
+
+  /**
+   * Step the timeline forward by one frame, as {@link #step()} does, but
+   * evaluate only the interpolable values referred to by <code>g</code>.
+   * All other interpolable values keep their current values, and the
+   * callbacks of their keyframes for the current time are not executed.
    * 
+   * @param g
+   *          The group handle.
    * @throws ConstraintError
-   *           Iff an internal constraint error occurs.
+   *           Iff <code>g == null</code> or <code>g</code> was not returned
+   *           by this timeline.
    */
 
-  public void step()
+  public void stepGroup(
+    final @Nonnull GroupHandle g)
     throws ConstraintError
   {
+    Constraints.constrainNotNull(g, "Group handle");
+    Constraints.constrainArbitrary(
+      g.getTimeline() == this,
+      "Group handle belongs to this timeline");
+
     try {
-      for (final Entry<String, State> e : this.interpolables.entrySet()) {
-        final State state = e.getValue();
-        state.run(this.time_current);
+      this.editsAcquire();
+
+      final long time = this.time_current;
+      final boolean sequential = this.time_sequential;
+      this.streamsUpdate(time, sequential);
+
+      final List<ArrayList<State>> lists = g.getStates();
+      final int groups = lists.size();
+      final boolean deferred = this.parallel_executor != null;
+
+      for (int group = 0; group < groups; ++group) {
+        final ArrayList<State> states = lists.get(group);
+        final int count = states.size();
+        for (int index = 0; index < count; ++index) {
+          if (deferred) {
+            states.get(index).runDeferred(time, sequential);
+          } else {
+            states.get(index).run(time, sequential);
+          }
+        }
+      }
+
+      if (deferred) {
+        for (int group = 0; group < groups; ++group) {
+          final ArrayList<State> states = lists.get(group);
+          final int count = states.size();
+          for (int index = 0; index < count; ++index) {
+            states.get(index).runCallbackDue(time);
+          }
+        }
       }
+
+      this.outputPublish(this.time_current);
     } finally {
-      this.time_current = this.time_current + 1;
-      if (this.time_loop_enabled) {
-        if (this.time_current > this.time_loop) {
-          this.time_current = 0;
+      this.stepAdvance();
+    }
+  }
+
+  /**
+   * Evaluate the first <code>count</code> active states using up to
+   * {@link #parallel_tasks} tasks on <code>executor</code>, one of which
+   * runs on the calling thread. The callbacks of the keyframes reached are
+   * recorded, but not executed.
+   */
+
+  private void stepParallel(
+    final @Nonnull Executor executor,
+    final long time,
+    final boolean sequential,
+    final int count)
+    throws ConstraintError
+  {
+    final ArrayList<State> active = this.tracks_active;
+    final int[] schedules = this.tracks_schedules;
+    final int tasks =
+      Math.min(this.parallel_tasks, count / Timeline.PARALLEL_TASK_MINIMUM);
+    final int size = (count + tasks - 1) / tasks;
+    final CountDownLatch latch = new CountDownLatch(tasks - 1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    for (int task = 1; task < tasks; ++task) {
+      final int lower = task * size;
+      final int upper = Math.min(count, lower + size);
+      final Runnable r = new Runnable() {
+        @Override public void run()
+        {
+          try {
+            Timeline.stepRange(
+              active,
+              schedules,
+              lower,
+              upper,
+              time,
+              sequential);
+          } catch (final Throwable e) {
+            error.compareAndSet(null, e);
+          } finally {
+            latch.countDown();
+          }
         }
+      };
+
+      try {
+        executor.execute(r);
+      } catch (final RejectedExecutionException e) {
+        r.run();
+      }
+    }
+
+    try {
+      Timeline.stepRange(
+        active,
+        schedules,
+        0,
+        Math.min(count, size),
+        time,
+        sequential);
+    } catch (final Throwable e) {
+      error.compareAndSet(null, e);
+    }
+
+    boolean interrupted = false;
+    for (;;) {
+      try {
+        latch.await();
+        break;
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    final Throwable e = error.get();
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    assert e == null;
+  }
+
+  private static void stepRange(
+    final @Nonnull ArrayList<State> active,
+    final @Nonnull int[] schedules,
+    final int lower,
+    final int upper,
+    final long time,
+    final boolean sequential)
+  {
+    for (int index = lower; index < upper; ++index) {
+      schedules[index] = active.get(index).runDeferred(time, sequential);
+    }
+  }
+
+  /**
+   * Close the keyframe files of all streamed values. The timeline must not be
+   * stepped afterwards.
+   * 
+   * @throws IOException
+   *           Iff an I/O error occurs whilst closing any of the files.
+   * @see #interpolableAddStreamed(InterpolableScalarReal, File, int, Executor)
+   */
+
+  public void streamsClose()
+    throws IOException
+  {
+    IOException error = null;
+    for (final State state : this.tracks_streamed) {
+      final KeyframeStream stream = state.getStream();
+      assert stream != null;
+      try {
+        stream.close();
+      } catch (final IOException e) {
+        error = e;
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Bring the keyframes of all streamed values up to date for a step at
+   * <code>time</code>, without waiting for any keyframes to be read.
+   */
+
+  private void streamsUpdate(
+    final long time,
+    final boolean sequential)
+    throws ConstraintError
+  {
+    final ArrayList<State> streamed = this.tracks_streamed;
+    final int count = streamed.size();
+    for (int index = 0; index < count; ++index) {
+      final State state = streamed.get(index);
+      final KeyframeStream stream = state.getStream();
+      assert stream != null;
+      if (stream.update(time, sequential)) {
+        this.scheduleWake(state);
       }
     }
   }
+
+  /**
+   * Return <code>true</code> if change suppression is enabled for the
+   * interpolable value referred to by <code>h</code>.
+   * 
+   * @throws ConstraintError
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   * @see #suppressionSetEnabled(TrackHandle, double)
+   */
+
+  public boolean suppressionIsEnabled(
+    final @Nonnull TrackHandle h)
+    throws ConstraintError
+  {
+    return this.checkHandle(h).isSuppressed();
+  }
+
+  /**
+   * Disable change suppression for the interpolable value referred to by
+   * <code>h</code>.
+   * 
+   * @throws ConstraintError
+   *           Iff <code>h == null</code> or <code>h</code> was not returned
+   *           by this timeline.
+   * @see #suppressionSetEnabled(TrackHandle, double)
+   */
+
+  public void suppressionSetDisabled(
+    final @Nonnull TrackHandle h)
+    throws ConstraintError
+  {
+    this.checkHandle(h).setSuppression(false, 0.0);
+  }
+
+  /**
+   * Enable change suppression for the interpolable value referred to by
+   * <code>h</code>. When suppression is enabled, the timeline only calls
+   * {@link InterpolableScalarReal#interpolableSet(double)} when the new value
+   * differs by more than <code>epsilon</code> from the last value that the
+   * timeline assigned. An <code>epsilon</code> of <code>0.0</code>
+   * suppresses exact repeats only, such as those produced by step
+   * interpolation or equal-valued keyframes.
+   * 
+   * @param h
+   *          The track handle.
+   * @param epsilon
+   *          The largest difference that is considered to be no change.
+   * @throws ConstraintError
+   *           Iff any of the following conditions hold:
+   *           <ul>
+   *           <li><code>h == null</code></li>
+   *           <li><code>h</code> was not returned by this timeline</li>
+   *           <li><code>epsilon</code> is negative or NaN</li>
+   *           </ul>
+   * @see #suppressionSetDisabled(TrackHandle)
+   */
+
+  public void suppressionSetEnabled(
+    final @Nonnull TrackHandle h,
+    final double epsilon)
+    throws ConstraintError
+  {
+    final State state = this.checkHandle(h);
+    Constraints.constrainArbitrary(epsilon >= 0.0, "Epsilon is non-negative");
+    state.setSuppression(true, epsilon);
+  }
 }
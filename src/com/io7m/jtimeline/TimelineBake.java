@@ -0,0 +1,236 @@
+package com.io7m.jtimeline;
+
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * The values of every track of a {@link Timeline}, sampled at each frame of
+ * a range of frames. Values are held in a single table with one row per
+ * frame and one column per track, in either double or single precision.
+ * The keyframes with callbacks that fall within the range are held in order
+ * of frame and then track, with the offset of the first callback of each
+ * frame.
+ */
+
+final class TimelineBake
+{
+  /**
+   * The maximum number of frames in a bake. The table of callback offsets
+   * holds one more element than there are frames.
+   */
+
+  static final int FRAMES_MAXIMUM = Integer.MAX_VALUE - 1;
+
+  private final long                      time_lower;
+  private final long                      time_upper;
+  private final int                       track_count;
+  private final @CheckForNull double[]    values_double;
+  private final @CheckForNull float[]     values_float;
+  private final @Nonnull long[]           track_first;
+  private final @Nonnull long[]           track_last;
+  private final @Nonnull int[]            callback_offsets;
+  private final @Nonnull int[]            callback_tracks;
+  private final @Nonnull Keyframe[]       callback_keyframes;
+  private final @Nonnull Timeline.State[] states;
+
+  TimelineBake(
+    final @Nonnull List<Timeline.State> in_states,
+    final long lower,
+    final long upper,
+    final boolean single)
+  {
+    assert (upper - lower) < TimelineBake.FRAMES_MAXIMUM;
+
+    final int count = in_states.size();
+    final int frames = (int) ((upper - lower) + 1);
+
+    this.time_lower = lower;
+    this.time_upper = upper;
+    this.track_count = count;
+    this.states = in_states.toArray(new Timeline.State[count]);
+    this.track_first = new long[count];
+    this.track_last = new long[count];
+
+    if (single) {
+      this.values_float = new float[frames * count];
+      this.values_double = null;
+    } else {
+      this.values_float = null;
+      this.values_double = new double[frames * count];
+    }
+
+    this.callback_offsets = new int[frames + 1];
+    for (int track = 0; track < count; ++track) {
+      final Timeline.State state = this.states[track];
+      final KeyframeTrack k = state.getKeyframes();
+      this.sample(track, state, frames);
+
+      final int size = k.size();
+      for (int index = k.indexSource(lower - 1) + 1; index < size; ++index) {
+        final long time = k.time(index);
+        if (time > upper) {
+          break;
+        }
+        if (k.callbackGet(index) != null) {
+          this.callback_offsets[(int) (time - lower) + 1] += 1;
+        }
+      }
+    }
+
+    for (int frame = 0; frame < frames; ++frame) {
+      this.callback_offsets[frame + 1] += this.callback_offsets[frame];
+    }
+
+    final int callbacks = this.callback_offsets[frames];
+    this.callback_tracks = new int[callbacks];
+    this.callback_keyframes = new Keyframe[callbacks];
+
+    final int[] fill = new int[frames];
+    System.arraycopy(this.callback_offsets, 0, fill, 0, frames);
+    for (int track = 0; track < count; ++track) {
+      final KeyframeTrack k = this.states[track].getKeyframes();
+      final int size = k.size();
+      for (int index = k.indexSource(lower - 1) + 1; index < size; ++index) {
+        final long time = k.time(index);
+        if (time > upper) {
+          break;
+        }
+        final Keyframe c = k.callbackGet(index);
+        if (c != null) {
+          final int frame = (int) (time - lower);
+          this.callback_tracks[fill[frame]] = track;
+          this.callback_keyframes[fill[frame]] = c;
+          fill[frame] += 1;
+        }
+      }
+    }
+  }
+
+  boolean contains(
+    final long time)
+  {
+    return (time >= this.time_lower) && (time <= this.time_upper);
+  }
+
+  long getTimeLower()
+  {
+    return this.time_lower;
+  }
+
+  long getTimeUpper()
+  {
+    return this.time_upper;
+  }
+
+  int getTrackCount()
+  {
+    return this.track_count;
+  }
+
+  long getTrackFirst(
+    final int track)
+  {
+    return this.track_first[track];
+  }
+
+  @CheckForNull double[] getValuesDouble()
+  {
+    return this.values_double;
+  }
+
+  @CheckForNull float[] getValuesFloat()
+  {
+    return this.values_float;
+  }
+
+  /**
+   * Assign the baked values for <code>time</code>, which must be within the
+   * baked range, to every track that has reached its first keyframe and has
+   * not passed its last, executing the callbacks of the keyframes at
+   * <code>time</code>. Tracks are visited in the order in which they were
+   * added to the timeline. If <code>sequential</code> is <code>false</code>,
+   * the time has been set or has looped since the previous frame, and
+   * tracks that have passed their last keyframe are also assigned the value
+   * they hold from then on, as they would be by an unbaked step. If
+   * <code>deferred</code> is <code>true</code>, the callbacks are executed
+   * after all values have been assigned, as they are when stepping in
+   * parallel.
+   */
+
+  void run(
+    final long time,
+    final boolean sequential,
+    final boolean deferred)
+    throws ConstraintError
+  {
+    final int frame = (int) (time - this.time_lower);
+    final int count = this.track_count;
+    final int row = frame * count;
+    final long[] first = this.track_first;
+    final long[] last = this.track_last;
+    final Timeline.State[] s = this.states;
+    final int[] c_tracks = this.callback_tracks;
+    final int c_end = this.callback_offsets[frame + 1];
+    int c = this.callback_offsets[frame];
+
+    final double[] vd = this.values_double;
+    final float[] vf = this.values_float;
+
+    for (int track = 0; track < count; ++track) {
+      if ((time < first[track]) || (sequential && (time > last[track]))) {
+        continue;
+      }
+
+      final Timeline.State state = s[track];
+      if ((deferred == false) && (c < c_end) && (c_tracks[c] == track)) {
+        state.callbackRun(this.callback_keyframes[c], time);
+        c = c + 1;
+      }
+
+      if (vd != null) {
+        state.push(vd[row + track]);
+      } else {
+        assert vf != null;
+        state.push(vf[row + track]);
+      }
+    }
+
+    for (; c < c_end; ++c) {
+      s[c_tracks[c]].callbackRun(this.callback_keyframes[c], time);
+    }
+  }
+
+  private void sample(
+    final int track,
+    final @Nonnull Timeline.State state,
+    final int frames)
+  {
+    final KeyframeTrack k = state.getKeyframes();
+    final int size = k.size();
+
+    if (size == 0) {
+      this.track_first[track] = Long.MAX_VALUE;
+      this.track_last[track] = Long.MIN_VALUE;
+      return;
+    }
+
+    this.track_first[track] = k.time(0);
+    this.track_last[track] = k.time(size - 1);
+
+    final int count = this.track_count;
+    for (int frame = 0; frame < frames; ++frame) {
+      final double x = state.evaluate(this.time_lower + frame);
+      final int index = (frame * count) + track;
+      if (this.values_double != null) {
+        this.values_double[index] = x;
+      } else {
+        assert this.values_float != null;
+        this.values_float[index] = (float) x;
+      }
+    }
+  }
+}
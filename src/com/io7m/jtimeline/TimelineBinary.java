@@ -0,0 +1,539 @@
+package com.io7m.jtimeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Functions to read and write timeline definitions in a compact, versioned
+ * binary format. The format holds the loop settings of the timeline and,
+ * for each interpolable value in the order in which they were added, its
+ * identity and keyframes, all in big-endian byte order:
+ * 
+ * <pre>
+ * int32   magic number (0x4A544C44)
+ * int32   format version (1)
+ * int32   flags (bit 0 set iff looping is enabled)
+ * int64   loop frame
+ * int32   track count
+ * for each track:
+ *   string  group (int32 length, UTF-8 bytes)
+ *   string  name (int32 length, UTF-8 bytes)
+ *   int64   ID
+ *   int32   keyframe count
+ *   int64[] keyframe times, in ascending order
+ *   float64[] keyframe values
+ *   int8[]  keyframe interpolation types ({@link InterpolationType} ordinals)
+ * </pre>
+ * 
+ * Keyframe callbacks cannot be serialized: keyframes with callbacks are
+ * written without them. Reading fills the keyframes of each track directly
+ * from the buffer, in bulk, reusing the same arrays for every track.
+ */
+
+public final class TimelineBinary
+{
+  /**
+   * A source of bytes: either a complete buffer, or a channel read through
+   * a fixed size buffer.
+   */
+
+  private static final class Input
+  {
+    private final @Nonnull ByteBuffer               buffer;
+    private final @CheckForNull ReadableByteChannel channel;
+
+    Input(
+      final @Nonnull ByteBuffer buffer,
+      final @CheckForNull ReadableByteChannel channel)
+    {
+      this.buffer = buffer;
+      this.channel = channel;
+    }
+
+    /**
+     * Return the number of bytes known to remain in the input, or
+     * <code>Long.MAX_VALUE</code> if the input is a channel of unknown
+     * length.
+     */
+
+    long available()
+      throws IOException
+    {
+      final long buffered = this.buffer.remaining();
+      final ReadableByteChannel c = this.channel;
+      if (c == null) {
+        return buffered;
+      }
+      if (c instanceof FileChannel) {
+        final FileChannel f = (FileChannel) c;
+        return buffered + Math.max(0, f.size() - f.position());
+      }
+      return Long.MAX_VALUE;
+    }
+
+    void getBytes(
+      final @Nonnull byte[] out,
+      final int count)
+      throws IOException
+    {
+      int done = 0;
+      while (done < count) {
+        this.require(this.chunk(count - done, 1));
+        final int n = Math.min(count - done, this.buffer.remaining());
+        this.buffer.get(out, done, n);
+        done = done + n;
+      }
+    }
+
+    /**
+     * Return the number of bytes that must be available in order to read the
+     * next part of <code>elements</code> elements of <code>size</code> bytes
+     * each: all of them, or as many as fit into the buffer.
+     */
+
+    private long chunk(
+      final int elements,
+      final int size)
+    {
+      final int capacity = this.buffer.capacity();
+      return Math.min((long) elements * size, capacity - (capacity % size));
+    }
+
+    void getDoubles(
+      final @Nonnull double[] out,
+      final int count)
+      throws IOException
+    {
+      int done = 0;
+      while (done < count) {
+        this.require(this.chunk(count - done, 8));
+        final int n = Math.min(count - done, this.buffer.remaining() / 8);
+        this.buffer.asDoubleBuffer().get(out, done, n);
+        this.buffer.position(this.buffer.position() + (n * 8));
+        done = done + n;
+      }
+    }
+
+    int getInt()
+      throws IOException
+    {
+      this.require(4);
+      return this.buffer.getInt();
+    }
+
+    long getLong()
+      throws IOException
+    {
+      this.require(8);
+      return this.buffer.getLong();
+    }
+
+    void getLongs(
+      final @Nonnull long[] out,
+      final int offset,
+      final int count)
+      throws IOException
+    {
+      int done = 0;
+      while (done < count) {
+        this.require(this.chunk(count - done, 8));
+        final int n = Math.min(count - done, this.buffer.remaining() / 8);
+        this.buffer.asLongBuffer().get(out, offset + done, n);
+        this.buffer.position(this.buffer.position() + (n * 8));
+        done = done + n;
+      }
+    }
+
+    /**
+     * Ensure that at least <code>bytes</code> bytes, which must not exceed
+     * the capacity of the buffer, are remaining in the buffer.
+     */
+
+    void require(
+      final long bytes)
+      throws IOException
+    {
+      final ByteBuffer b = this.buffer;
+      if (b.remaining() >= bytes) {
+        return;
+      }
+      if (this.channel == null) {
+        throw new IOException("Unexpected end of timeline data");
+      }
+
+      b.compact();
+      try {
+        while (b.position() < bytes) {
+          if (this.channel.read(b) < 0) {
+            throw new IOException("Unexpected end of timeline data");
+          }
+        }
+      } finally {
+        b.flip();
+      }
+    }
+  }
+
+  /**
+   * A sink of bytes, written to a channel through a fixed size buffer.
+   */
+
+  private static final class Output
+  {
+    private final @Nonnull ByteBuffer          buffer;
+    private final @Nonnull WritableByteChannel channel;
+
+    Output(
+      final @Nonnull WritableByteChannel channel)
+    {
+      this.buffer = ByteBuffer.allocate(TimelineBinary.BUFFER_SIZE);
+      this.buffer.order(ByteOrder.BIG_ENDIAN);
+      this.channel = channel;
+    }
+
+    void flush()
+      throws IOException
+    {
+      final ByteBuffer b = this.buffer;
+      b.flip();
+      while (b.hasRemaining()) {
+        this.channel.write(b);
+      }
+      b.clear();
+    }
+
+    void putByte(
+      final byte x)
+      throws IOException
+    {
+      this.require(1);
+      this.buffer.put(x);
+    }
+
+    void putDouble(
+      final double x)
+      throws IOException
+    {
+      this.require(8);
+      this.buffer.putDouble(x);
+    }
+
+    void putInt(
+      final int x)
+      throws IOException
+    {
+      this.require(4);
+      this.buffer.putInt(x);
+    }
+
+    void putLong(
+      final long x)
+      throws IOException
+    {
+      this.require(8);
+      this.buffer.putLong(x);
+    }
+
+    void putString(
+      final @Nonnull String s)
+      throws IOException
+    {
+      final byte[] bytes = s.getBytes(TimelineBinary.UTF8);
+      this.putInt(bytes.length);
+      int done = 0;
+      while (done < bytes.length) {
+        this.require(1);
+        final int n = Math.min(bytes.length - done, this.buffer.remaining());
+        this.buffer.put(bytes, done, n);
+        done = done + n;
+      }
+    }
+
+    private void require(
+      final int bytes)
+      throws IOException
+    {
+      if (this.buffer.remaining() < bytes) {
+        this.flush();
+      }
+    }
+  }
+
+  static final int                         MAGIC       = 0x4A544C44;
+  static final int                         VERSION     = 1;
+  static final int                         FLAG_LOOP   = 0x1;
+  private static final int                 BUFFER_SIZE = 65536;
+  private static final int                 RECORD_SIZE = 8 + 8 + 1;
+  private static final @Nonnull Charset    UTF8;
+  private static final InterpolationType[] INTERPOLATION_TYPES;
+
+  static {
+    UTF8 = Charset.forName("UTF-8");
+    INTERPOLATION_TYPES = InterpolationType.values();
+  }
+
+  /**
+   * Read a timeline from <code>buffer</code>, starting at the current
+   * position of <code>buffer</code> and interpreting it in big-endian byte
+   * order regardless of the order set on <code>buffer</code>. The buffer may,
+   * for example, be a file mapped into memory. On return, the position of
+   * <code>buffer</code> is immediately after the timeline.
+   * 
+   * @param buffer
+   *          The buffer.
+   * @param resolver
+   *          A function that retrieves the interpolable values referred to
+   *          by the timeline.
+   * @throws ConstraintError
+   *           Iff <code>buffer == null</code>, <code>resolver == null</code>,
+   *           or the resolver or the timeline reject an interpolable value
+   *           or keyframe.
+   * @throws IOException
+   *           Iff the data is truncated, or is not a timeline of a
+   *           supported version.
+   */
+
+  public static @Nonnull Timeline read(
+    final @Nonnull ByteBuffer buffer,
+    final @Nonnull InterpolableResolver resolver)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(buffer, "Buffer");
+    Constraints.constrainNotNull(resolver, "Resolver");
+
+    final ByteBuffer b = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+    final Input input = new Input(b, null);
+    final Timeline t = TimelineBinary.readTimeline(input, resolver);
+    buffer.position(buffer.position() + b.position());
+    return t;
+  }
+
+  /**
+   * Read a timeline from <code>channel</code>, through a fixed size buffer.
+   * Bytes following the timeline may be consumed from the channel.
+   * 
+   * @param channel
+   *          The channel.
+   * @param resolver
+   *          A function that retrieves the interpolable values referred to
+   *          by the timeline.
+   * @throws ConstraintError
+   *           Iff <code>channel == null</code>,
+   *           <code>resolver == null</code>, or the resolver or the timeline
+   *           reject an interpolable value or keyframe.
+   * @throws IOException
+   *           Iff an I/O error occurs, the data is truncated, or the data is
+   *           not a timeline of a supported version.
+   */
+
+  public static @Nonnull Timeline read(
+    final @Nonnull ReadableByteChannel channel,
+    final @Nonnull InterpolableResolver resolver)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(channel, "Channel");
+    Constraints.constrainNotNull(resolver, "Resolver");
+
+    final ByteBuffer b = ByteBuffer.allocate(TimelineBinary.BUFFER_SIZE);
+    b.order(ByteOrder.BIG_ENDIAN);
+    b.flip();
+    return TimelineBinary.readTimeline(new Input(b, channel), resolver);
+  }
+
+  private static @Nonnull String readString(
+    final @Nonnull Input input,
+    final @Nonnull byte[][] scratch)
+    throws IOException
+  {
+    final int length = input.getInt();
+    if (length < 0) {
+      throw new IOException("Invalid string length " + length);
+    }
+    if (length > input.available()) {
+      throw new IOException("Unexpected end of timeline data");
+    }
+    if (scratch[0].length < length) {
+      scratch[0] = new byte[length];
+    }
+    input.getBytes(scratch[0], length);
+    return new String(scratch[0], 0, length, TimelineBinary.UTF8);
+  }
+
+  /**
+   * Read <code>count</code> keyframe times into <code>times</code>, or into
+   * a larger copy of <code>times</code> if it is too small. The copy grows as
+   * the times are read, rather than being allocated for <code>count</code>
+   * times in advance, so that a corrupt count read from a channel of unknown
+   * length causes an {@link IOException} rather than an attempt to allocate
+   * an arbitrarily large array.
+   */
+
+  private static @Nonnull long[] readTimes(
+    final @Nonnull Input input,
+    final @Nonnull long[] times,
+    final int count)
+    throws IOException
+  {
+    long[] out = times;
+    int done = 0;
+    while (done < count) {
+      if (out.length == done) {
+        final long grown = Math.max(done * 2L, TimelineBinary.BUFFER_SIZE / 8);
+        out = Arrays.copyOf(out, (int) Math.min(count, grown));
+      }
+      final int n = Math.min(count, out.length) - done;
+      input.getLongs(out, done, n);
+      done = done + n;
+    }
+    return out;
+  }
+
+  private static @Nonnull Timeline readTimeline(
+    final @Nonnull Input input,
+    final @Nonnull InterpolableResolver resolver)
+    throws ConstraintError,
+      IOException
+  {
+    final int magic = input.getInt();
+    if (magic != TimelineBinary.MAGIC) {
+      throw new IOException("Not a timeline (bad magic number "
+        + Integer.toHexString(magic)
+        + ")");
+    }
+    final int version = input.getInt();
+    if (version != TimelineBinary.VERSION) {
+      throw new IOException("Unsupported timeline version " + version);
+    }
+
+    final Timeline timeline = new Timeline();
+    final int flags = input.getInt();
+    final long loop = input.getLong();
+    if ((flags & TimelineBinary.FLAG_LOOP) != 0) {
+      timeline.loopSetEnabled(loop);
+    }
+
+    final int tracks = input.getInt();
+    if (tracks < 0) {
+      throw new IOException("Invalid track count " + tracks);
+    }
+
+    final byte[][] string_scratch = new byte[][] { new byte[64] };
+    long[] times = new long[0];
+    double[] values = new double[0];
+    byte[] interpolations = new byte[0];
+
+    for (int track = 0; track < tracks; ++track) {
+      final String group = TimelineBinary.readString(input, string_scratch);
+      final String name = TimelineBinary.readString(input, string_scratch);
+      final long id = input.getLong();
+      final InterpolableScalarReal i = resolver.resolve(group, name, id);
+      final TrackHandle h = timeline.interpolableAdd(i);
+
+      final int count = input.getInt();
+      if (count < 0) {
+        throw new IOException("Invalid keyframe count " + count);
+      }
+      if (((long) count * TimelineBinary.RECORD_SIZE) > input.available()) {
+        throw new IOException("Unexpected end of timeline data");
+      }
+
+      times = TimelineBinary.readTimes(input, times, count);
+      if (values.length < count) {
+        values = new double[count];
+        interpolations = new byte[count];
+      }
+
+      input.getDoubles(values, count);
+      input.getBytes(interpolations, count);
+
+      for (int index = 0; index < count; ++index) {
+        final int type = interpolations[index];
+        if ((type < 0) || (type >= TimelineBinary.INTERPOLATION_TYPES.length)) {
+          throw new IOException("Invalid interpolation type " + type);
+        }
+      }
+
+      timeline.keyframeAddAllPacked(h, times, values, interpolations, count);
+    }
+
+    return timeline;
+  }
+
+  /**
+   * Write the timeline <code>timeline</code> to <code>channel</code>.
+   * Keyframe callbacks are not written.
+   * 
+   * @param timeline
+   *          The timeline.
+   * @param channel
+   *          The channel.
+   * @throws ConstraintError
+   *           Iff <code>timeline == null</code> or
+   *           <code>channel == null</code>.
+   * @throws IOException
+   *           Iff an I/O error occurs.
+   */
+
+  public static void write(
+    final @Nonnull Timeline timeline,
+    final @Nonnull WritableByteChannel channel)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(timeline, "Timeline");
+    Constraints.constrainNotNull(channel, "Channel");
+
+    final Output output = new Output(channel);
+    output.putInt(TimelineBinary.MAGIC);
+    output.putInt(TimelineBinary.VERSION);
+    output.putInt(timeline.loopIsEnabled() ? TimelineBinary.FLAG_LOOP : 0);
+    output.putLong(timeline.loopGetTime());
+
+    final List<Timeline.State> states = timeline.getStates();
+    final int tracks = states.size();
+    output.putInt(tracks);
+
+    for (int track = 0; track < tracks; ++track) {
+      final Timeline.State state = states.get(track);
+      final InterpolableScalarReal i = state.getInterpolable();
+      output.putString(i.interpolableGetGroup());
+      output.putString(i.interpolableGetName());
+      output.putLong(i.interpolableGetID());
+
+      final KeyframeTrack k = state.getKeyframes();
+      final int count = k.size();
+      output.putInt(count);
+      for (int index = 0; index < count; ++index) {
+        output.putLong(k.time(index));
+      }
+      for (int index = 0; index < count; ++index) {
+        output.putDouble(k.value(index));
+      }
+      for (int index = 0; index < count; ++index) {
+        output.putByte((byte) k.interpolationType(index).ordinal());
+      }
+    }
+
+    output.flush();
+  }
+
+  private TimelineBinary()
+  {
+    throw new AssertionError("unreachable code: report this bug!");
+  }
+}
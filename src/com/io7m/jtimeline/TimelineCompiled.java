@@ -0,0 +1,403 @@
+package com.io7m.jtimeline;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Type representing a compiled form of a {@link Timeline}, suited to
+ * evaluating the values of very large numbers of tracks. The current segment
+ * of every track is held in flat arrays grouped by curve kind, and each curve
+ * kind is evaluated for all of its tracks at once using the batch functions
+ * of {@link Interpolation}. Results are written to an output bank indexed by
+ * {@link TrackHandle#getIndex()}.
+ * 
+ * Evaluation is purely numeric: keyframe callbacks are not executed and
+ * {@link InterpolableScalarReal#interpolableSet(double)} is not called.
+ * Keyframes added to the original timeline are observed, but interpolable
+ * values added after compilation are not. The compiled form, like
+ * {@link Timeline#evaluate(TrackHandle, long)}, computes the interpolation
+ * factor by multiplying by a precomputed inverse duration rather than by
+ * dividing by the duration, so the factor may differ from
+ * <code>(t - t0) / (t1 - t0)</code> in the last bit. Results therefore
+ * differ from those of the scalar functions of {@link Interpolation} given
+ * that quotient by no more than <code>2<sup>-50</sup> * |v1 - v0|</code>
+ * for a segment between values <code>v0</code> and <code>v1</code>.
+ */
+
+public final class TimelineCompiled
+{
+  /**
+   * The packed segments of all tracks of one curve kind.
+   */
+
+  private static final class Segments
+  {
+    private @Nonnull double[] start;
+    private @Nonnull double[] inverse;
+    private @Nonnull double[] v0;
+    private @Nonnull double[] v1;
+    private @Nonnull double[] result;
+    private @Nonnull int[]    track;
+    private int               count;
+
+    Segments(
+      final int capacity)
+    {
+      final int c = Math.max(capacity, 1);
+      this.start = new double[c];
+      this.inverse = new double[c];
+      this.v0 = new double[c];
+      this.v1 = new double[c];
+      this.result = new double[c];
+      this.track = new int[c];
+      this.count = 0;
+    }
+  }
+
+  static final int         KIND_NONE        = -1;
+  static final int         KIND_CONSTANT    = 0;
+  static final int         KIND_LINEAR      = 1;
+  static final int         KIND_EXPONENTIAL = 2;
+  static final int         KIND_LOGARITHMIC = 3;
+  private static final int KIND_COUNT       = 4;
+
+  private final @Nonnull Timeline.State[] states;
+  private final @Nonnull KeyframeTrack[]  tracks;
+  private final @Nonnull double[]         bound_minimum;
+  private final @Nonnull double[]         bound_maximum;
+  private final @Nonnull long[]           seg_begin;
+  private final @Nonnull long[]           seg_end;
+  private final @Nonnull int[]            seg_index;
+  private final @Nonnull int[]            seg_version;
+  private final @Nonnull int[]            seg_kind;
+  private final @Nonnull int[]            seg_slot;
+  private final @Nonnull Segments[]       kinds;
+
+  TimelineCompiled(
+    final @Nonnull List<Timeline.State> in_states)
+  {
+    final int count = in_states.size();
+    this.states = new Timeline.State[count];
+    this.tracks = new KeyframeTrack[count];
+    this.bound_minimum = new double[count];
+    this.bound_maximum = new double[count];
+    this.seg_begin = new long[count];
+    this.seg_end = new long[count];
+    this.seg_index = new int[count];
+    this.seg_version = new int[count];
+    this.seg_kind = new int[count];
+    this.seg_slot = new int[count];
+
+    this.kinds = new Segments[TimelineCompiled.KIND_COUNT];
+    for (int kind = 0; kind < TimelineCompiled.KIND_COUNT; ++kind) {
+      this.kinds[kind] = new Segments(count);
+    }
+
+    for (int index = 0; index < count; ++index) {
+      final Timeline.State state = in_states.get(index);
+      this.states[index] = state;
+      this.tracks[index] = state.getKeyframes();
+      this.seg_kind[index] = TimelineCompiled.KIND_NONE;
+      this.seg_version[index] = state.getKeyframes().version() - 1;
+    }
+
+    this.boundsRefresh();
+  }
+
+  /**
+   * Copy the bounds used by the original timeline for each interpolable
+   * value: the captured bounds for values with bounds capture enabled, and
+   * the current bounds of the interpolable otherwise.
+   * 
+   * @see Timeline#boundsCaptureSetEnabled(TrackHandle)
+   * @see Timeline#boundsRefresh(TrackHandle)
+   */
+
+  public void boundsRefresh()
+  {
+    for (int index = 0; index < this.states.length; ++index) {
+      final Timeline.State state = this.states[index];
+      this.bound_minimum[index] = state.getBoundMinimum();
+      this.bound_maximum[index] = state.getBoundMaximum();
+    }
+  }
+
+  /**
+   * Evaluate all tracks at frame <code>time</code>, writing the value of the
+   * track with index <code>n</code> to <code>output[n]</code>. Elements for
+   * tracks that have no keyframe at or before <code>time</code> are not
+   * modified.
+   * 
+   * @param time
+   *          The time in frames.
+   * @param output
+   *          The output bank.
+   * @throws ConstraintError
+   *           Iff <code>output == null</code> or
+   *           <code>output.length &lt; getTrackCount()</code>.
+   */
+
+  public void evaluate(
+    final long time,
+    final @Nonnull double[] output)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(output, "Output");
+    Constraints.constrainArbitrary(
+      output.length >= this.tracks.length,
+      "Output length is at least the track count");
+
+    this.segmentsUpdate(time);
+
+    final double t = time;
+    final Segments[] k = this.kinds;
+    TimelineCompiled.evaluateConstant(k[TimelineCompiled.KIND_CONSTANT]);
+
+    final Segments linear = k[TimelineCompiled.KIND_LINEAR];
+    TimelineCompiled.evaluateFactors(linear, t);
+    Interpolation.interpolateLinearBatch(
+      linear.result,
+      linear.v0,
+      linear.v1,
+      linear.result,
+      linear.count);
+
+    final Segments exponential = k[TimelineCompiled.KIND_EXPONENTIAL];
+    TimelineCompiled.evaluateFactors(exponential, t);
+    Interpolation.interpolateExponentialBatch(
+      exponential.result,
+      exponential.v0,
+      exponential.v1,
+      exponential.result,
+      exponential.count);
+
+    final Segments logarithmic = k[TimelineCompiled.KIND_LOGARITHMIC];
+    TimelineCompiled.evaluateFactors(logarithmic, t);
+    Interpolation.interpolateLogarithmicBatch(
+      logarithmic.result,
+      logarithmic.v0,
+      logarithmic.v1,
+      logarithmic.result,
+      logarithmic.count);
+
+    for (int kind = 0; kind < TimelineCompiled.KIND_COUNT; ++kind) {
+      this.scatter(k[kind], output);
+    }
+  }
+
+  private static void evaluateConstant(
+    final @Nonnull Segments s)
+  {
+    System.arraycopy(s.v0, 0, s.result, 0, s.count);
+  }
+
+  /**
+   * Compute the interpolation factor of every segment in <code>s</code> at
+   * time <code>t</code>, writing the factors to <code>s.result</code>.
+   */
+
+  private static void evaluateFactors(
+    final @Nonnull Segments s,
+    final double t)
+  {
+    final double[] start = s.start;
+    final double[] inverse = s.inverse;
+    final double[] result = s.result;
+    final int count = s.count;
+
+    for (int index = 0; index < count; ++index) {
+      result[index] = (t - start[index]) * inverse[index];
+    }
+  }
+
+  /**
+   * Return the number of tracks in the compiled timeline.
+   */
+
+  public int getTrackCount()
+  {
+    return this.tracks.length;
+  }
+
+  /**
+   * Write the results of the segments <code>s</code> to the tracks to which
+   * they belong, clamping each to the bounds of its track.
+   */
+
+  private void scatter(
+    final @Nonnull Segments s,
+    final @Nonnull double[] output)
+  {
+    final double[] result = s.result;
+    final int[] track = s.track;
+    final double[] min = this.bound_minimum;
+    final double[] max = this.bound_maximum;
+    final int count = s.count;
+
+    for (int index = 0; index < count; ++index) {
+      final int i = track[index];
+      output[i] = Timeline.clamp(result[index], min[i], max[i]);
+    }
+  }
+
+  private void segmentAdd(
+    final int i,
+    final int kind,
+    final long t0,
+    final long t1,
+    final double v0,
+    final double v1)
+  {
+    final Segments s = this.kinds[kind];
+    final int slot = s.count;
+
+    s.track[slot] = i;
+    s.start[slot] = t0;
+    s.v0[slot] = v0;
+    if (kind != TimelineCompiled.KIND_CONSTANT) {
+      s.inverse[slot] = 1.0 / (t1 - t0);
+      s.v1[slot] = v1;
+    }
+
+    s.count = slot + 1;
+    this.seg_kind[i] = kind;
+    this.seg_slot[i] = slot;
+  }
+
+  /**
+   * Remove track <code>i</code> from the segments of its current curve kind,
+   * by moving the last segment of that kind into its slot.
+   */
+
+  private void segmentRemove(
+    final int i)
+  {
+    final int kind = this.seg_kind[i];
+    if (kind == TimelineCompiled.KIND_NONE) {
+      return;
+    }
+
+    final Segments s = this.kinds[kind];
+    final int slot = this.seg_slot[i];
+    final int last = s.count - 1;
+
+    if (slot != last) {
+      final int moved = s.track[last];
+      s.track[slot] = moved;
+      s.start[slot] = s.start[last];
+      s.inverse[slot] = s.inverse[last];
+      s.v0[slot] = s.v0[last];
+      s.v1[slot] = s.v1[last];
+      this.seg_slot[moved] = slot;
+    }
+
+    s.count = last;
+    this.seg_kind[i] = TimelineCompiled.KIND_NONE;
+  }
+
+  /**
+   * Locate the segment of track <code>i</code> at <code>time</code>.
+   */
+
+  private void segmentResolve(
+    final int i,
+    final long time)
+  {
+    final KeyframeTrack k = this.states[i].getKeyframes();
+    final int version = k.version();
+
+    final int index;
+    if ((k == this.tracks[i])
+      && (version == this.seg_version[i])
+      && (time >= this.seg_begin[i])) {
+      index = k.indexSourceFrom(this.seg_index[i], time);
+    } else {
+      index = k.indexSeek(time);
+    }
+
+    this.segmentRemove(i);
+    this.tracks[i] = k;
+    this.seg_index[i] = index;
+    this.seg_version[i] = version;
+
+    final int size = k.size();
+    if (index < 0) {
+      this.seg_begin[i] = Long.MIN_VALUE;
+      this.seg_end[i] = (size == 0) ? Long.MAX_VALUE : k.time(0);
+      return;
+    }
+
+    final long t0 = k.time(index);
+    final double v0 = k.value(index);
+    this.seg_begin[i] = t0;
+
+    if (index == (size - 1)) {
+      this.seg_end[i] = Long.MAX_VALUE;
+      this.segmentAdd(i, TimelineCompiled.KIND_CONSTANT, t0, t0, v0, v0);
+      return;
+    }
+
+    final long t1 = k.time(index + 1);
+    final double v1 = k.value(index + 1);
+    this.seg_end[i] = t1;
+
+    switch (k.interpolationType(index)) {
+      case INTERPOLATE_EXPONENTIAL:
+      {
+        this.segmentAdd(i, TimelineCompiled.KIND_EXPONENTIAL, t0, t1, v0, v1);
+        break;
+      }
+      case INTERPOLATE_LINEAR:
+      {
+        this.segmentAdd(i, TimelineCompiled.KIND_LINEAR, t0, t1, v0, v1);
+        break;
+      }
+      case INTERPOLATE_LOGARITHMIC:
+      {
+        this.segmentAdd(i, TimelineCompiled.KIND_LOGARITHMIC, t0, t1, v0, v1);
+        break;
+      }
+      case INTERPOLATE_STEP_MAXIMUM:
+      {
+        this.segmentAdd(i, TimelineCompiled.KIND_CONSTANT, t0, t1, v1, v1);
+        break;
+      }
+      case INTERPOLATE_STEP_MINIMUM:
+      {
+        this.segmentAdd(i, TimelineCompiled.KIND_CONSTANT, t0, t1, v0, v0);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Ensure that the current segment of every track contains
+   * <code>time</code>. The keyframes of each track are read through its
+   * state, because the timeline replaces the keyframes of a state with a new
+   * version of the track when concurrent editing is enabled.
+   */
+
+  private void segmentsUpdate(
+    final long time)
+  {
+    final Timeline.State[] s = this.states;
+    final KeyframeTrack[] t = this.tracks;
+    final long[] begin = this.seg_begin;
+    final long[] end = this.seg_end;
+    final int[] version = this.seg_version;
+
+    for (int index = 0; index < t.length; ++index) {
+      final KeyframeTrack k = s[index].getKeyframes();
+      if ((time < begin[index])
+        || (time >= end[index])
+        || (k != t[index])
+        || (version[index] != k.version())) {
+        this.segmentResolve(index, time);
+      }
+    }
+  }
+}
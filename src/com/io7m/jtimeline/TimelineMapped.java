@@ -0,0 +1,325 @@
+package com.io7m.jtimeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+
+/**
+ * Type representing a baked timeline stored in a file and mapped into
+ * memory. Values are read directly from the mapped file and are never
+ * copied onto the heap, so any number of processes that open the same file
+ * share a single copy in the operating system's page cache.
+ * 
+ * Files are written by {@link Timeline#bakeWrite(File, long, long, boolean)}.
+ * The format consists of a header, the time of the first keyframe of each
+ * track, and a table of sampled values with one row per frame and one
+ * column per track, all in little-endian byte order:
+ * 
+ * <pre>
+ * int32   magic number (0x4A544C42)
+ * int32   format version (1)
+ * int32   flags (bit 0 set iff values are single precision)
+ * int32   track count
+ * int64   first frame
+ * int64   last frame
+ * int64[] first keyframe time per track
+ * float64[] or float32[] values
+ * </pre>
+ * 
+ * As with {@link TimelineCompiled}, evaluation is purely numeric: keyframe
+ * callbacks are not executed.
+ */
+
+public final class TimelineMapped
+{
+  static final int         MAGIC          = 0x4A544C42;
+  static final int         VERSION        = 1;
+  static final int         FLAG_SINGLE    = 0x1;
+  private static final int HEADER_SIZE    = 32;
+  private static final int OFFSET_MAGIC   = 0;
+  private static final int OFFSET_VERSION = 4;
+  private static final int OFFSET_FLAGS   = 8;
+  private static final int OFFSET_TRACKS  = 12;
+  private static final int OFFSET_LOWER   = 16;
+  private static final int OFFSET_UPPER   = 24;
+
+  /**
+   * Open the baked timeline file <code>file</code>.
+   * 
+   * @param file
+   *          The file.
+   * @throws ConstraintError
+   *           Iff <code>file == null</code>.
+   * @throws IOException
+   *           Iff an I/O error occurs, or the file is not a baked timeline
+   *           file of a supported version.
+   */
+
+  public static @Nonnull TimelineMapped open(
+    final @Nonnull File file)
+    throws ConstraintError,
+      IOException
+  {
+    Constraints.constrainNotNull(file, "File");
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Baked timeline file is too large: " + size);
+      }
+
+      final MappedByteBuffer map =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      map.order(ByteOrder.LITTLE_ENDIAN);
+      return new TimelineMapped(map);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Return the size in bytes of a baked timeline file holding
+   * <code>frames</code> frames of <code>tracks</code> tracks, or
+   * <code>-1</code> if the file would be too large to be mapped.
+   */
+
+  static long sizeOf(
+    final int tracks,
+    final long frames,
+    final boolean single)
+  {
+    if ((tracks < 0)
+      || (frames < 1)
+      || (frames > (Integer.MAX_VALUE / Math.max(tracks, 1)))) {
+      return -1;
+    }
+
+    final long element = single ? 4 : 8;
+    final long size =
+      TimelineMapped.HEADER_SIZE + (tracks * 8L) + (frames * tracks * element);
+    if (size > Integer.MAX_VALUE) {
+      return -1;
+    }
+    return size;
+  }
+
+  /**
+   * Write the baked timeline <code>b</code> to <code>file</code>, replacing
+   * any existing contents.
+   */
+
+  static void write(
+    final @Nonnull TimelineBake b,
+    final @Nonnull File file)
+    throws IOException
+  {
+    final int tracks = b.getTrackCount();
+    final long frames = (b.getTimeUpper() - b.getTimeLower()) + 1;
+    final float[] vf = b.getValuesFloat();
+    final double[] vd = b.getValuesDouble();
+    final boolean single = vf != null;
+    final long size = TimelineMapped.sizeOf(tracks, frames, single);
+    if (size < 0) {
+      throw new IOException("Baked timeline is too large to be mapped");
+    }
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(size);
+
+      final FileChannel channel = raf.getChannel();
+      final MappedByteBuffer map =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      map.order(ByteOrder.LITTLE_ENDIAN);
+
+      map.putInt(TimelineMapped.OFFSET_MAGIC, TimelineMapped.MAGIC);
+      map.putInt(TimelineMapped.OFFSET_VERSION, TimelineMapped.VERSION);
+      map.putInt(TimelineMapped.OFFSET_FLAGS, single
+        ? TimelineMapped.FLAG_SINGLE
+        : 0);
+      map.putInt(TimelineMapped.OFFSET_TRACKS, tracks);
+      map.putLong(TimelineMapped.OFFSET_LOWER, b.getTimeLower());
+      map.putLong(TimelineMapped.OFFSET_UPPER, b.getTimeUpper());
+
+      final LongBuffer first =
+        TimelineMapped.slice(map, TimelineMapped.HEADER_SIZE).asLongBuffer();
+      for (int track = 0; track < tracks; ++track) {
+        first.put(track, b.getTrackFirst(track));
+      }
+
+      final ByteBuffer values =
+        TimelineMapped.slice(map, TimelineMapped.HEADER_SIZE + (tracks * 8));
+      if (single) {
+        values.asFloatBuffer().put(vf);
+      } else {
+        assert vd != null;
+        values.asDoubleBuffer().put(vd);
+      }
+
+      map.force();
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static @Nonnull ByteBuffer slice(
+    final @Nonnull ByteBuffer b,
+    final int offset)
+  {
+    final ByteBuffer d = b.duplicate();
+    d.position(offset);
+    return d.slice().order(b.order());
+  }
+
+  private final long                       time_lower;
+  private final long                       time_upper;
+  private final int                        track_count;
+  private final @Nonnull LongBuffer        track_first;
+  private final @CheckForNull DoubleBuffer values_double;
+  private final @CheckForNull FloatBuffer  values_float;
+
+  private TimelineMapped(
+    final @Nonnull ByteBuffer map)
+    throws IOException
+  {
+    if (map.capacity() < TimelineMapped.HEADER_SIZE) {
+      throw new IOException("Baked timeline file is truncated");
+    }
+
+    final int magic = map.getInt(TimelineMapped.OFFSET_MAGIC);
+    if (magic != TimelineMapped.MAGIC) {
+      throw new IOException("Not a baked timeline file (bad magic number "
+        + Integer.toHexString(magic)
+        + ")");
+    }
+    final int version = map.getInt(TimelineMapped.OFFSET_VERSION);
+    if (version != TimelineMapped.VERSION) {
+      throw new IOException("Unsupported baked timeline file version "
+        + version);
+    }
+
+    final int flags = map.getInt(TimelineMapped.OFFSET_FLAGS);
+    final boolean single = (flags & TimelineMapped.FLAG_SINGLE) != 0;
+    this.track_count = map.getInt(TimelineMapped.OFFSET_TRACKS);
+    this.time_lower = map.getLong(TimelineMapped.OFFSET_LOWER);
+    this.time_upper = map.getLong(TimelineMapped.OFFSET_UPPER);
+
+    final long frames = (this.time_upper - this.time_lower) + 1;
+    final long size = TimelineMapped.sizeOf(this.track_count, frames, single);
+    if ((size < 0) || (map.capacity() != size)) {
+      throw new IOException("Baked timeline file has an invalid size");
+    }
+
+    this.track_first =
+      TimelineMapped.slice(map, TimelineMapped.HEADER_SIZE).asLongBuffer();
+
+    final ByteBuffer values =
+      TimelineMapped.slice(map, TimelineMapped.HEADER_SIZE
+        + (this.track_count * 8));
+    if (single) {
+      this.values_float = values.asFloatBuffer();
+      this.values_double = null;
+    } else {
+      this.values_float = null;
+      this.values_double = values.asDoubleBuffer();
+    }
+  }
+
+  /**
+   * Read the values of all tracks at frame <code>time</code>, writing the
+   * value of the track with index <code>n</code> to <code>output[n]</code>.
+   * Elements for tracks that have no keyframe at or before <code>time</code>
+   * are not modified.
+   * 
+   * @param time
+   *          The time in frames.
+   * @param output
+   *          The output bank.
+   * @throws ConstraintError
+   *           Iff <code>output == null</code>,
+   *           <code>output.length &lt; getTrackCount()</code>, or
+   *           <code>time</code> is not in
+   *           <code>[getTimeLower() .. getTimeUpper()]</code>.
+   */
+
+  public void evaluate(
+    final long time,
+    final @Nonnull double[] output)
+    throws ConstraintError
+  {
+    Constraints.constrainNotNull(output, "Output");
+    Constraints.constrainArbitrary(
+      output.length >= this.track_count,
+      "Output length is at least the track count");
+    Constraints.constrainRange(time, this.time_lower, this.time_upper);
+
+    final int count = this.track_count;
+    final int row = (int) (time - this.time_lower) * count;
+    final LongBuffer first = this.track_first;
+    final DoubleBuffer vd = this.values_double;
+    final FloatBuffer vf = this.values_float;
+
+    for (int track = 0; track < count; ++track) {
+      if (time < first.get(track)) {
+        continue;
+      }
+      if (vd != null) {
+        output[track] = vd.get(row + track);
+      } else {
+        assert vf != null;
+        output[track] = vf.get(row + track);
+      }
+    }
+  }
+
+  /**
+   * Return the first frame stored in the file.
+   */
+
+  public long getTimeLower()
+  {
+    return this.time_lower;
+  }
+
+  /**
+   * Return the last frame stored in the file.
+   */
+
+  public long getTimeUpper()
+  {
+    return this.time_upper;
+  }
+
+  /**
+   * Return the number of tracks stored in the file.
+   */
+
+  public int getTrackCount()
+  {
+    return this.track_count;
+  }
+
+  /**
+   * Return <code>true</code> iff values are stored in single precision.
+   */
+
+  public boolean isSinglePrecision()
+  {
+    return this.values_float != null;
+  }
+}
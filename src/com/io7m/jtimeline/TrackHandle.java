@@ -0,0 +1,67 @@
+package com.io7m.jtimeline;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Type representing an {@link InterpolableScalarReal} value that has been
+ * added to a specific {@link Timeline}. Handles are returned by
+ * {@link Timeline#interpolableAdd(InterpolableScalarReal)} and allow
+ * keyframes to be added and values to be evaluated without repeatedly
+ * identifying the interpolable value by its group, name, and ID. A handle
+ * refers to the live state of the track held by the timeline.
+ */
+
+public final class TrackHandle
+{
+  private final @Nonnull Timeline       timeline;
+  private final @Nonnull Timeline.State state;
+  private final int                     index;
+
+  TrackHandle(
+    final @Nonnull Timeline timeline,
+    final @Nonnull Timeline.State state,
+    final int index)
+  {
+    this.timeline = timeline;
+    this.state = state;
+    this.index = index;
+  }
+
+  /**
+   * Return the index of the track within the timeline. Tracks are numbered
+   * from <code>0</code> in the order in which they were added.
+   */
+
+  public int getIndex()
+  {
+    return this.index;
+  }
+
+  /**
+   * Return the interpolable value to which the handle refers.
+   */
+
+  public @Nonnull InterpolableScalarReal getInterpolable()
+  {
+    return this.state.getInterpolable();
+  }
+
+  @Nonnull Timeline.State getState()
+  {
+    return this.state;
+  }
+
+  @Nonnull Timeline getTimeline()
+  {
+    return this.timeline;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[TrackHandle ");
+    builder.append(this.index);
+    builder.append("]");
+    return builder.toString();
+  }
+}
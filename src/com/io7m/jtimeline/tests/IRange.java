@@ -0,0 +1,61 @@
+package com.io7m.jtimeline.tests;
+
+import com.io7m.jtimeline.InterpolableScalarReal;
+
+/**
+ * An interpolable value with the given bounds.
+ */
+
+final class IRange implements InterpolableScalarReal
+{
+  private double       value = 0.0;
+  private final long   id;
+  private final double minimum;
+  private final double maximum;
+
+  IRange(
+    final long id,
+    final double minimum,
+    final double maximum)
+  {
+    this.id = id;
+    this.minimum = minimum;
+    this.maximum = maximum;
+  }
+
+  @Override public double interpolableGet()
+  {
+    return this.value;
+  }
+
+  @Override public String interpolableGetGroup()
+  {
+    return "com.io7m.jtimeline";
+  }
+
+  @Override public long interpolableGetID()
+  {
+    return this.id;
+  }
+
+  @Override public String interpolableGetName()
+  {
+    return "irange";
+  }
+
+  @Override public double interpolableMaximum()
+  {
+    return this.maximum;
+  }
+
+  @Override public double interpolableMinimum()
+  {
+    return this.minimum;
+  }
+
+  @Override public void interpolableSet(
+    final double x)
+  {
+    this.value = x;
+  }
+}
@@ -0,0 +1,86 @@
+package com.io7m.jtimeline.tests;
+
+import javax.annotation.Nonnull;
+
+import com.io7m.jtimeline.InterpolableScalarReal;
+
+/**
+ * An unbounded interpolable value that counts the values assigned to it.
+ */
+
+final class IValue implements InterpolableScalarReal
+{
+  private double       value;
+  private int          sets;
+  private final long   id;
+  private final String group;
+  private final String name;
+
+  IValue(
+    final long id)
+  {
+    this(id, 0.0);
+  }
+
+  IValue(
+    final long id,
+    final double value)
+  {
+    this("com.io7m.jtimeline", "ivalue", id);
+    this.value = value;
+  }
+
+  IValue(
+    final @Nonnull String group,
+    final @Nonnull String name,
+    final long id)
+  {
+    this.group = group;
+    this.name = name;
+    this.id = id;
+    this.value = 0.0;
+    this.sets = 0;
+  }
+
+  int getSets()
+  {
+    return this.sets;
+  }
+
+  @Override public double interpolableGet()
+  {
+    return this.value;
+  }
+
+  @Override public String interpolableGetGroup()
+  {
+    return this.group;
+  }
+
+  @Override public long interpolableGetID()
+  {
+    return this.id;
+  }
+
+  @Override public String interpolableGetName()
+  {
+    return this.name;
+  }
+
+  @Override public double interpolableMaximum()
+  {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  @Override public double interpolableMinimum()
+  {
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  @Override public void interpolableSet(
+    final double x)
+  {
+    this.value = x;
+    this.sets = this.sets + 1;
+  }
+}
@@ -1,5 +1,7 @@
 package com.io7m.jtimeline.tests;
 
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -8,6 +10,58 @@ import com.io7m.jtimeline.Interpolation;
 
 public class InterpolationTest
 {
+  @Test public void testBatchEqualsScalar()
+  {
+    final Random random = new Random(0x10203040);
+    final int count = 1001;
+    final double[] factor = new double[count];
+    final double[] min = new double[count];
+    final double[] max = new double[count];
+    final double[] out = new double[count];
+
+    for (int index = 0; index < count; ++index) {
+      factor[index] = random.nextDouble();
+      min[index] = (random.nextDouble() - 0.5) * 1000.0;
+      max[index] = (random.nextDouble() - 0.5) * 1000.0;
+    }
+
+    Interpolation.interpolateLinearBatch(factor, min, max, out, count);
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(out[index] == Interpolation.interpolateLinear(
+        factor[index],
+        min[index],
+        max[index]));
+    }
+
+    Interpolation.interpolateExponentialBatch(factor, min, max, out, count);
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(out[index] == Interpolation.interpolateExponential(
+        factor[index],
+        min[index],
+        max[index]));
+    }
+
+    Interpolation.interpolateLogarithmicBatch(factor, min, max, out, count);
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(out[index] == Interpolation.interpolateLogarithmic(
+        factor[index],
+        min[index],
+        max[index]));
+    }
+  }
+
+  @Test public void testBatchInPlace()
+  {
+    final double[] factor = { 0.0, 0.5, 1.0 };
+    final double[] min = { 0.0, 0.0, 0.0 };
+    final double[] max = { 10.0, 10.0, 10.0 };
+
+    Interpolation.interpolateLinearBatch(factor, min, max, factor, 2);
+    Assert.assertTrue(0.0 == factor[0]);
+    Assert.assertTrue(5.0 == factor[1]);
+    Assert.assertTrue(1.0 == factor[2]);
+  }
+
   @Test public void testExp0()
   {
     final double x = Interpolation.interpolateExponential(0.0, 0.0, 10.0);
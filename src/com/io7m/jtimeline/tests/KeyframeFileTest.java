@@ -0,0 +1,322 @@
+package com.io7m.jtimeline.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jtimeline.InterpolationType;
+import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.KeyframeFile;
+import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TrackHandle;
+
+public class KeyframeFileTest
+{
+  private static final Executor DIRECT = new Executor() {
+    @Override public void execute(
+      final Runnable r)
+    {
+      r.run();
+    }
+  };
+
+  /**
+   * Write <code>count</code> random keyframes to <code>file</code>, adding
+   * them to <code>h</code> in <code>timeline</code>.
+   */
+
+  private static void makeRandom(
+    final @Nonnull File file,
+    final @Nonnull Timeline timeline,
+    final @Nonnull TrackHandle h,
+    final int count)
+    throws ConstraintError,
+      IOException
+  {
+    final Random random = new Random(0x5eed);
+    final InterpolationType[] types = InterpolationType.values();
+    final long[] times = new long[count];
+    final double[] values = new double[count];
+    final InterpolationType[] ts = new InterpolationType[count];
+
+    long time = 3;
+    for (int index = 0; index < count; ++index) {
+      times[index] = time;
+      values[index] = random.nextGaussian();
+      ts[index] = types[random.nextInt(types.length)];
+      time = time + 1 + random.nextInt(4);
+    }
+
+    final FileOutputStream stream = new FileOutputStream(file);
+    try {
+      final FileChannel channel = stream.getChannel();
+      KeyframeFile.writeHeader(channel);
+      final int half = count / 2;
+      KeyframeFile.writeKeyframes(channel, times, values, ts, half);
+
+      final long[] times_rest = new long[count - half];
+      final double[] values_rest = new double[count - half];
+      final InterpolationType[] ts_rest = new InterpolationType[count - half];
+      System.arraycopy(times, half, times_rest, 0, count - half);
+      System.arraycopy(values, half, values_rest, 0, count - half);
+      System.arraycopy(ts, half, ts_rest, 0, count - half);
+      KeyframeFile.writeKeyframes(
+        channel,
+        times_rest,
+        values_rest,
+        ts_rest,
+        count - half);
+    } finally {
+      stream.close();
+    }
+
+    timeline.keyframeAddAll(h, times, values, ts);
+  }
+
+  @Test(expected = IOException.class) public void testOpenBadMagic()
+    throws ConstraintError,
+      IOException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      final FileOutputStream stream = new FileOutputStream(file);
+      try {
+        stream.write(new byte[25]);
+      } finally {
+        stream.close();
+      }
+
+      final Timeline timeline = new Timeline();
+      timeline.interpolableAddStreamed(
+        new IValue(0),
+        file,
+        16,
+        KeyframeFileTest.DIRECT);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test(expected = ConstraintError.class) public void testStreamedKeyframeAdd()
+    throws ConstraintError,
+      IOException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      final Timeline reference = new Timeline();
+      KeyframeFileTest.makeRandom(
+        file,
+        reference,
+        reference.interpolableAdd(new IValue(0)),
+        10);
+
+      final Timeline timeline = new Timeline();
+      final TrackHandle h =
+        timeline.interpolableAddStreamed(
+          new IValue(0),
+          file,
+          16,
+          KeyframeFileTest.DIRECT);
+      try {
+        timeline.keyframeAdd(h, new Keyframe(
+          InterpolationType.INTERPOLATE_LINEAR,
+          1,
+          0.0));
+      } finally {
+        timeline.streamsClose();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * The keyframes of each window are ascending, but the second window begins
+   * before the end of the first.
+   */
+
+  @Test(expected = ConstraintError.class) public
+    void
+    testStreamedUnorderedWindows()
+      throws ConstraintError,
+        IOException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      final InterpolationType[] types =
+        new InterpolationType[] {
+          InterpolationType.INTERPOLATE_LINEAR,
+          InterpolationType.INTERPOLATE_LINEAR,
+          InterpolationType.INTERPOLATE_LINEAR,
+          InterpolationType.INTERPOLATE_LINEAR, };
+      final double[] values = new double[] { 0.0, 1.0, 2.0, 3.0 };
+
+      final FileOutputStream stream = new FileOutputStream(file);
+      try {
+        final FileChannel channel = stream.getChannel();
+        KeyframeFile.writeHeader(channel);
+        KeyframeFile.writeKeyframes(
+          channel,
+          new long[] { 0, 10, 20, 30 },
+          values,
+          types,
+          4);
+        KeyframeFile.writeKeyframes(
+          channel,
+          new long[] { 5, 6, 7, 8 },
+          values,
+          types,
+          4);
+      } finally {
+        stream.close();
+      }
+
+      final Timeline timeline = new Timeline();
+      timeline.interpolableAddStreamed(
+        new IValue(0),
+        file,
+        4,
+        KeyframeFileTest.DIRECT);
+      try {
+        for (int frame = 0; frame < 40; ++frame) {
+          timeline.step();
+        }
+      } finally {
+        timeline.streamsClose();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void testStreamedSeek()
+    throws ConstraintError,
+      IOException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      final Timeline reference = new Timeline();
+      final IValue vr = new IValue(0);
+      KeyframeFileTest.makeRandom(
+        file,
+        reference,
+        reference.interpolableAdd(vr),
+        5000);
+
+      final Timeline timeline = new Timeline();
+      final IValue vs = new IValue(0);
+      timeline.interpolableAddStreamed(vs, file, 32, KeyframeFileTest.DIRECT);
+
+      try {
+        reference.loopSetEnabled(700);
+        timeline.loopSetEnabled(700);
+
+        final long[] seeks = new long[] { 9000, 200, 12000, 12001, 0 };
+        for (final long seek : seeks) {
+          reference.currentTimeSet(seek);
+          timeline.currentTimeSet(seek);
+          for (int frame = 0; frame < 1000; ++frame) {
+            reference.step();
+            timeline.step();
+            Assert.assertTrue(vr.interpolableGet() == vs.interpolableGet());
+          }
+        }
+      } finally {
+        timeline.streamsClose();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void testStreamedSequential()
+    throws ConstraintError,
+      IOException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      final Timeline reference = new Timeline();
+      final IValue vr = new IValue(0);
+      KeyframeFileTest.makeRandom(
+        file,
+        reference,
+        reference.interpolableAdd(vr),
+        5000);
+
+      final Timeline timeline = new Timeline();
+      final IValue vs = new IValue(0);
+      timeline.interpolableAddStreamed(vs, file, 16, KeyframeFileTest.DIRECT);
+
+      try {
+        for (int frame = 0; frame < 14000; ++frame) {
+          reference.step();
+          timeline.step();
+          Assert.assertTrue(vr.interpolableGet() == vs.interpolableGet());
+        }
+      } finally {
+        timeline.streamsClose();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void testStreamedThreaded()
+    throws ConstraintError,
+      IOException,
+      InterruptedException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Timeline reference = new Timeline();
+      final IValue vr = new IValue(0);
+      KeyframeFileTest.makeRandom(
+        file,
+        reference,
+        reference.interpolableAdd(vr),
+        2000);
+
+      final Timeline timeline = new Timeline();
+      final IValue vs = new IValue(0);
+      timeline.interpolableAddStreamed(vs, file, 64, executor);
+
+      try {
+        for (int frame = 0; frame < 6000; ++frame) {
+          timeline.step();
+        }
+
+        /**
+         * The last keyframe is eventually read, and the value settles on it.
+         */
+
+        for (int attempt = 0; attempt < 1000; ++attempt) {
+          reference.currentTimeSet(timeline.currentTimeGet());
+          reference.step();
+          timeline.step();
+          if (vr.interpolableGet() == vs.interpolableGet()) {
+            break;
+          }
+          Thread.sleep(10);
+        }
+        Assert.assertTrue(vr.interpolableGet() == vs.interpolableGet());
+      } finally {
+        timeline.streamsClose();
+      }
+    } finally {
+      executor.shutdown();
+      file.delete();
+    }
+  }
+}
@@ -9,6 +9,7 @@ import com.io7m.jaux.functional.Procedure;
 import com.io7m.jtimeline.InterpolableScalarReal;
 import com.io7m.jtimeline.InterpolationType;
 import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.KeyframeCallback;
 
 public class KeyframeTest
 {
@@ -234,7 +235,23 @@ public class KeyframeTest
     testNewCallbackNull()
       throws ConstraintError
   {
-    new Keyframe(InterpolationType.INTERPOLATE_LINEAR, 0, 0, null);
+    new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0,
+      (Procedure<Pair<InterpolableScalarReal, Keyframe>>) null);
+  }
+
+  @SuppressWarnings("unused") @Test(expected = ConstraintError.class) public
+    void
+    testNewKeyframeCallbackNull()
+      throws ConstraintError
+  {
+    new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0,
+      (KeyframeCallback) null);
   }
 
   @SuppressWarnings("unused") @Test(expected = ConstraintError.class) public
@@ -258,6 +275,34 @@ public class KeyframeTest
     Assert.assertEquals(1, cc.getCalls());
   }
 
+  @Test public void testRunKeyframeCallback()
+    throws ConstraintError
+  {
+    final ITrivial i = new ITrivial();
+    final long[] calls = new long[1];
+    final Keyframe k =
+      new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        23,
+        0,
+        new KeyframeCallback() {
+          @Override public void call(
+            final InterpolableScalarReal ci,
+            final Keyframe ck,
+            final long frame)
+          {
+            Assert.assertSame(i, ci);
+            Assert.assertEquals(23, ck.getTime());
+            Assert.assertEquals(23, frame);
+            calls[0] = calls[0] + 1;
+          }
+        });
+
+    k.runCallback(i);
+    k.runCallback(i);
+    Assert.assertEquals(2, calls[0]);
+  }
+
   @Test(expected = ConstraintError.class) public void testRunCallbackNull()
     throws ConstraintError
   {
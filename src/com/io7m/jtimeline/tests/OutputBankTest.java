@@ -0,0 +1,150 @@
+package com.io7m.jtimeline.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jtimeline.InterpolationType;
+import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.OutputBank;
+import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TrackHandle;
+
+public class OutputBankTest
+{
+  @Test(expected = ConstraintError.class) public void testDisabled()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    Assert.assertFalse(timeline.outputIsEnabled());
+    timeline.outputGetBank();
+  }
+
+  @Test public void testFrames()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final TrackHandle h0 = timeline.interpolableAdd(new IValue(0, 3.0));
+    timeline.interpolableAdd(new IValue(1, 7.0));
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      10.0));
+
+    timeline.outputSetEnabled();
+    Assert.assertTrue(timeline.outputIsEnabled());
+
+    final OutputBank bank = timeline.outputGetBank();
+    final double[] output = new double[3];
+    Assert.assertEquals(2, bank.getTrackCount());
+    Assert.assertEquals(1, bank.read(output));
+    Assert.assertEquals(3.0, output[0], 0.0);
+    Assert.assertEquals(7.0, output[1], 0.0);
+
+    timeline.step();
+    timeline.step();
+    Assert.assertEquals(3, bank.read(output));
+    Assert.assertEquals(1.0, output[0], 0.0);
+    Assert.assertEquals(7.0, output[1], 0.0);
+
+    timeline.interpolableAdd(new IValue(2, 5.0));
+    Assert.assertEquals(2, bank.getTrackCount());
+    timeline.step();
+    Assert.assertEquals(3, bank.getTrackCount());
+    Assert.assertEquals(4, bank.read(output));
+    Assert.assertEquals(2.0, output[0], 0.0);
+    Assert.assertEquals(7.0, output[1], 0.0);
+    Assert.assertEquals(5.0, output[2], 0.0);
+
+    timeline.outputSetDisabled();
+    Assert.assertFalse(timeline.outputIsEnabled());
+    timeline.step();
+    Assert.assertEquals(4, bank.read(output));
+    Assert.assertEquals(2.0, output[0], 0.0);
+  }
+
+  @Test(expected = ConstraintError.class) public void testReadShort()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.interpolableAdd(new IValue(0, 3.0));
+    timeline.outputSetEnabled();
+    timeline.outputGetBank().read(new double[0]);
+  }
+
+  /**
+   * Every track has the same value at every frame, so a reader that observes
+   * differing values has observed an incomplete frame.
+   */
+
+  @Test public void testReadersComplete()
+    throws Exception
+  {
+    final Timeline timeline = new Timeline();
+    final int tracks = 256;
+    final int frames = 100;
+
+    for (int track = 0; track < tracks; ++track) {
+      final TrackHandle h = timeline.interpolableAdd(new IValue(track, 0.0));
+      for (int frame = 0; frame < frames; ++frame) {
+        timeline.keyframeAdd(h, new Keyframe(
+          InterpolationType.INTERPOLATE_LINEAR,
+          frame,
+          frame));
+      }
+    }
+
+    timeline.loopSetEnabled(frames - 1);
+    timeline.outputSetEnabled();
+
+    final OutputBank bank = timeline.outputGetBank();
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final ExecutorService exec = Executors.newFixedThreadPool(3);
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int reader = 0; reader < 3; ++reader) {
+        futures.add(exec.submit(new Callable<Void>() {
+          @Override public Void call()
+            throws Exception
+          {
+            final double[] output = new double[tracks];
+            long last = 0;
+            while (stop.get() == false) {
+              final long sequence = bank.read(output);
+              Assert.assertTrue(sequence >= last);
+              last = sequence;
+              for (int track = 1; track < tracks; ++track) {
+                Assert.assertEquals(output[0], output[track], 0.0);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+
+      for (int step = 0; step < (frames * 200); ++step) {
+        timeline.step();
+      }
+      stop.set(true);
+
+      for (final Future<Void> f : futures) {
+        f.get();
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.io7m.jtimeline.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jtimeline.InterpolationType;
+import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.OutputSink;
+import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TrackHandle;
+
+public class OutputSinkTest
+{
+  private static final class SRecorder implements OutputSink
+  {
+    private final List<Long>     frames = new ArrayList<Long>();
+    private final List<double[]> values = new ArrayList<double[]>();
+
+    SRecorder()
+    {
+
+    }
+
+    @Override public void outputFrame(
+      final long frame,
+      final double[] in_values,
+      final int count)
+    {
+      final double[] copy = new double[count];
+      System.arraycopy(in_values, 0, copy, 0, count);
+      this.frames.add(Long.valueOf(frame));
+      this.values.add(copy);
+    }
+  }
+
+  @Test public void testFrames()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final IValue v0 = new IValue(0, 3.0);
+    final IValue v1 = new IValue(1, 7.0);
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+    final TrackHandle h1 = timeline.interpolableAdd(v1);
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      10.0));
+    timeline.keyframeAdd(h1, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      2,
+      20.0));
+
+    final SRecorder sink = new SRecorder();
+    Assert.assertFalse(timeline.outputSinkIsEnabled());
+    timeline.outputSinkSetEnabled(sink, false);
+    Assert.assertTrue(timeline.outputSinkIsEnabled());
+
+    for (int frame = 0; frame < 4; ++frame) {
+      timeline.step();
+    }
+
+    Assert.assertEquals(4, sink.frames.size());
+    for (int frame = 0; frame < 4; ++frame) {
+      Assert.assertEquals(frame, sink.frames.get(frame).longValue());
+      final double[] values = sink.values.get(frame);
+      Assert.assertEquals(2, values.length);
+      Assert.assertEquals(frame, values[0], 0.000001);
+      Assert.assertEquals((frame >= 2) ? 20.0 : 7.0, values[1], 0.0);
+    }
+
+    Assert.assertEquals(0, v0.getSets());
+    Assert.assertEquals(0, v1.getSets());
+    Assert.assertEquals(3.0, v0.interpolableGet(), 0.0);
+
+    timeline.outputSinkSetDisabled();
+    Assert.assertFalse(timeline.outputSinkIsEnabled());
+    timeline.step();
+    Assert.assertEquals(4, sink.frames.size());
+    Assert.assertEquals(1, v0.getSets());
+    Assert.assertEquals(4.0, v0.interpolableGet(), 0.000001);
+  }
+
+  @Test public void testFramesAssign()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final IValue v0 = new IValue(0, 3.0);
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      10.0));
+
+    final SRecorder sink = new SRecorder();
+    timeline.outputSinkSetEnabled(sink, true);
+    timeline.outputSetEnabled();
+    timeline.step();
+    timeline.step();
+
+    final IValue v1 = new IValue(1, 5.0);
+    timeline.interpolableAdd(v1);
+    timeline.step();
+
+    Assert.assertEquals(3, v0.getSets());
+    Assert.assertEquals(2.0, v0.interpolableGet(), 0.000001);
+    Assert.assertEquals(3, sink.frames.size());
+    Assert.assertEquals(1, sink.values.get(1).length);
+    Assert.assertEquals(2, sink.values.get(2).length);
+    Assert.assertEquals(5.0, sink.values.get(2)[1], 0.0);
+
+    final double[] output = new double[2];
+    timeline.outputGetBank().read(output);
+    Assert.assertEquals(2.0, output[0], 0.000001);
+    Assert.assertEquals(5.0, output[1], 0.0);
+  }
+
+  @Test public void testFramesDormant()
+    throws ConstraintError
+  {
+    for (final boolean baked : new boolean[] { false, true }) {
+      final Timeline timeline = new Timeline();
+      final IValue v0 = new IValue(0, 0.0);
+      final TrackHandle h0 = timeline.interpolableAdd(v0);
+
+      timeline.keyframeAdd(h0, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        0,
+        0.0));
+      timeline.keyframeAdd(h0, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        2,
+        3.0));
+      if (baked) {
+        timeline.bake(0, 20, false);
+      }
+
+      final SRecorder sink = new SRecorder();
+      timeline.outputSinkSetEnabled(sink, false);
+      for (int frame = 0; frame < 5; ++frame) {
+        timeline.step();
+      }
+      Assert.assertEquals(0, v0.getSets());
+      Assert.assertEquals(3.0, sink.values.get(4)[0], 0.0);
+
+      timeline.outputSinkSetDisabled();
+      for (int frame = 0; frame < 5; ++frame) {
+        timeline.step();
+      }
+      Assert.assertEquals(1, v0.getSets());
+      Assert.assertEquals(3.0, v0.interpolableGet(), 0.0);
+    }
+  }
+
+  @Test(expected = ConstraintError.class) public void testNull()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.outputSinkSetEnabled(null, false);
+  }
+}
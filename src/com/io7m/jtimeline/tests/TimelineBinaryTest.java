@@ -0,0 +1,293 @@
+package com.io7m.jtimeline.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jaux.Constraints;
+import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jtimeline.InterpolableResolver;
+import com.io7m.jtimeline.InterpolableScalarReal;
+import com.io7m.jtimeline.InterpolationType;
+import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TimelineBinary;
+import com.io7m.jtimeline.TrackHandle;
+
+public class TimelineBinaryTest
+{
+  /**
+   * The name of every value, which is not ASCII, so that the encoding of
+   * strings is exercised.
+   */
+
+  private static final String NAME = "ivalue \u00e9";
+
+  private static class Resolver implements InterpolableResolver
+  {
+    private final @Nonnull HashMap<String, IValue> values;
+
+    Resolver()
+    {
+      this.values = new HashMap<String, IValue>();
+    }
+
+    void add(
+      final @Nonnull IValue v)
+    {
+      this.values.put(Resolver.key(
+        v.interpolableGetGroup(),
+        v.interpolableGetName(),
+        v.interpolableGetID()), v);
+    }
+
+    private static @Nonnull String key(
+      final @Nonnull String group,
+      final @Nonnull String name,
+      final long id)
+    {
+      return group + ":" + name + ":" + id;
+    }
+
+    @Override public InterpolableScalarReal resolve(
+      final @Nonnull String group,
+      final @Nonnull String name,
+      final long id)
+      throws ConstraintError
+    {
+      final IValue v = this.values.get(Resolver.key(group, name, id));
+      return Constraints.constrainNotNull(v, "Interpolable");
+    }
+  }
+
+  private static void checkEqual(
+    final @Nonnull Timeline expected,
+    final @Nonnull Timeline actual,
+    final @Nonnull Resolver resolver,
+    final @Nonnull ArrayList<IValue> values,
+    final long time_upper)
+    throws ConstraintError
+  {
+    Assert.assertEquals(expected.loopIsEnabled(), actual.loopIsEnabled());
+    Assert.assertEquals(expected.loopGetTime(), actual.loopGetTime());
+
+    for (final IValue v : values) {
+      final TrackHandle he = expected.interpolableGetHandle(v);
+      final TrackHandle ha = actual.interpolableGetHandle(v);
+      Assert.assertEquals(he.getIndex(), ha.getIndex());
+      for (long time = 0; time < time_upper; time += 7) {
+        final double x = expected.evaluate(he, time);
+        final double y = actual.evaluate(ha, time);
+        Assert.assertTrue(Double.doubleToLongBits(x) == Double
+          .doubleToLongBits(y));
+      }
+    }
+  }
+
+  private static @Nonnull Timeline makeRandom(
+    final @Nonnull Random random,
+    final @Nonnull Resolver resolver,
+    final @Nonnull ArrayList<IValue> values,
+    final int tracks,
+    final int keyframes)
+    throws ConstraintError
+  {
+    final InterpolationType[] types = InterpolationType.values();
+    final Timeline timeline = new Timeline();
+    timeline.loopSetEnabled(1000);
+
+    for (int track = 0; track < tracks; ++track) {
+      final IValue v =
+        new IValue("group" + (track % 3), TimelineBinaryTest.NAME, track);
+      v.interpolableSet(Double.NaN);
+      resolver.add(v);
+      values.add(v);
+
+      final TrackHandle h = timeline.interpolableAdd(v);
+      final int count = random.nextInt(keyframes + 1);
+      long time = random.nextInt(10);
+      for (int k = 0; k < count; ++k) {
+        timeline.keyframeAdd(h, new Keyframe(
+          types[random.nextInt(types.length)],
+          time,
+          random.nextGaussian()));
+        time = time + 1 + random.nextInt(5);
+      }
+    }
+
+    return timeline;
+  }
+
+  private static @Nonnull byte[] write(
+    final @Nonnull Timeline timeline)
+    throws ConstraintError,
+      IOException
+  {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    TimelineBinary.write(timeline, Channels.newChannel(stream));
+    return stream.toByteArray();
+  }
+
+  @Test(expected = IOException.class) public void testReadBadMagic()
+    throws ConstraintError,
+      IOException
+  {
+    TimelineBinary.read(ByteBuffer.wrap(new byte[64]), new Resolver());
+  }
+
+  @Test public void testReadBuffer()
+    throws ConstraintError,
+      IOException
+  {
+    final Random random = new Random(0x5eed);
+    final Resolver resolver = new Resolver();
+    final ArrayList<IValue> values = new ArrayList<IValue>();
+    final Timeline timeline =
+      TimelineBinaryTest.makeRandom(random, resolver, values, 100, 40);
+
+    final byte[] data = TimelineBinaryTest.write(timeline);
+    final ByteBuffer buffer = ByteBuffer.allocate(data.length + 4);
+    buffer.put(data);
+    buffer.putInt(0x12345678);
+    buffer.flip();
+
+    final Timeline read = TimelineBinary.read(buffer, resolver);
+    Assert.assertEquals(data.length, buffer.position());
+    Assert.assertEquals(0x12345678, buffer.getInt());
+    TimelineBinaryTest.checkEqual(timeline, read, resolver, values, 250);
+  }
+
+  @Test public void testReadChannelLarge()
+    throws ConstraintError,
+      IOException
+  {
+    final Random random = new Random(0x5eed);
+    final Resolver resolver = new Resolver();
+    final ArrayList<IValue> values = new ArrayList<IValue>();
+    final Timeline timeline =
+      TimelineBinaryTest.makeRandom(random, resolver, values, 4, 20000);
+
+    final byte[] data = TimelineBinaryTest.write(timeline);
+    final Timeline read =
+      TimelineBinary.read(
+        Channels.newChannel(new ByteArrayInputStream(data)),
+        resolver);
+    TimelineBinaryTest.checkEqual(timeline, read, resolver, values, 60000);
+  }
+
+  /**
+   * Return the data of a timeline with a single track whose keyframe count
+   * has been replaced with <code>Integer.MAX_VALUE</code>.
+   */
+
+  private static @Nonnull byte[] makeCorruptCount()
+    throws ConstraintError,
+      IOException
+  {
+    final byte[] data = TimelineBinaryTest.makeSingle();
+    final int name = TimelineBinaryTest.NAME.getBytes("UTF-8").length;
+    final int offset = (4 + 4 + 4 + 8 + 4) + (4 + 1) + (4 + name) + 8;
+    final ByteBuffer b = ByteBuffer.wrap(data);
+    Assert.assertEquals(2, b.getInt(offset));
+    b.putInt(offset, Integer.MAX_VALUE);
+    return data;
+  }
+
+  /**
+   * Return the data of a timeline with a single track whose group name
+   * length has been replaced with <code>Integer.MAX_VALUE</code>.
+   */
+
+  private static @Nonnull byte[] makeCorruptString()
+    throws ConstraintError,
+      IOException
+  {
+    final byte[] data = TimelineBinaryTest.makeSingle();
+    final int offset = 4 + 4 + 4 + 8 + 4;
+    final ByteBuffer b = ByteBuffer.wrap(data);
+    Assert.assertEquals(1, b.getInt(offset));
+    b.putInt(offset, Integer.MAX_VALUE);
+    return data;
+  }
+
+  /**
+   * Return the data of a timeline with a single track with two keyframes.
+   */
+
+  private static @Nonnull byte[] makeSingle()
+    throws ConstraintError,
+      IOException
+  {
+    final Timeline timeline = new Timeline();
+    final IValue v = new IValue("g", TimelineBinaryTest.NAME, 0);
+    final TrackHandle h = timeline.interpolableAdd(v);
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      1,
+      1.0));
+
+    return TimelineBinaryTest.write(timeline);
+  }
+
+  @Test(expected = IOException.class) public void testReadCorruptString()
+    throws ConstraintError,
+      IOException
+  {
+    final Resolver resolver = new Resolver();
+    resolver.add(new IValue("g", TimelineBinaryTest.NAME, 0));
+    final byte[] data = TimelineBinaryTest.makeCorruptString();
+    TimelineBinary.read(ByteBuffer.wrap(data), resolver);
+  }
+
+  @Test(expected = IOException.class) public void testReadCorruptBuffer()
+    throws ConstraintError,
+      IOException
+  {
+    final Resolver resolver = new Resolver();
+    resolver.add(new IValue("g", TimelineBinaryTest.NAME, 0));
+    final byte[] data = TimelineBinaryTest.makeCorruptCount();
+    TimelineBinary.read(ByteBuffer.wrap(data), resolver);
+  }
+
+  @Test(expected = IOException.class) public void testReadCorruptChannel()
+    throws ConstraintError,
+      IOException
+  {
+    final Resolver resolver = new Resolver();
+    resolver.add(new IValue("g", TimelineBinaryTest.NAME, 0));
+    final byte[] data = TimelineBinaryTest.makeCorruptCount();
+    TimelineBinary.read(
+      Channels.newChannel(new ByteArrayInputStream(data)),
+      resolver);
+  }
+
+  @Test(expected = IOException.class) public void testReadTruncated()
+    throws ConstraintError,
+      IOException
+  {
+    final Random random = new Random(0x5eed);
+    final Resolver resolver = new Resolver();
+    final ArrayList<IValue> values = new ArrayList<IValue>();
+    final Timeline timeline =
+      TimelineBinaryTest.makeRandom(random, resolver, values, 10, 10);
+
+    final byte[] data = TimelineBinaryTest.write(timeline);
+    TimelineBinary.read(
+      Channels.newChannel(new ByteArrayInputStream(data, 0, data.length - 1)),
+      resolver);
+  }
+}
@@ -0,0 +1,199 @@
+package com.io7m.jtimeline.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jaux.ApproximatelyEqualDouble;
+import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jtimeline.InterpolationType;
+import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TimelineCompiled;
+import com.io7m.jtimeline.TrackHandle;
+
+public class TimelineCompiledTest
+{
+  private static void checkEqual(
+    final @Nonnull Timeline timeline,
+    final @Nonnull ArrayList<TrackHandle> handles,
+    final @Nonnull double[] output,
+    final long time)
+    throws ConstraintError
+  {
+    for (final TrackHandle h : handles) {
+      final double expected = timeline.evaluate(h, time);
+      final double actual = output[h.getIndex()];
+      if (Double.isNaN(expected)) {
+        Assert.assertTrue(Double.isNaN(actual));
+      } else {
+        Assert.assertEquals(expected, actual, 0.000000001);
+      }
+    }
+  }
+
+  private static @Nonnull Timeline makeRandom(
+    final @Nonnull Random random,
+    final @Nonnull ArrayList<TrackHandle> handles,
+    final int tracks)
+    throws ConstraintError
+  {
+    final InterpolationType[] types = InterpolationType.values();
+    final Timeline timeline = new Timeline();
+
+    for (int track = 0; track < tracks; ++track) {
+      final IRange i;
+      if ((track % 2) == 0) {
+        i = new IRange(track, 0.0, 1.0);
+      } else {
+        i =
+          new IRange(
+            track,
+            Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY);
+      }
+      i.interpolableSet(Double.NaN);
+
+      final TrackHandle h = timeline.interpolableAdd(i);
+      handles.add(h);
+
+      long time = random.nextInt(20);
+      final int count = random.nextInt(12);
+      for (int k = 0; k < count; ++k) {
+        timeline.keyframeAdd(h, new Keyframe(
+          types[random.nextInt(types.length)],
+          time,
+          (random.nextDouble() * 4.0) - 2.0));
+        time = time + 1 + random.nextInt(10);
+      }
+    }
+
+    return timeline;
+  }
+
+  @Test public void testEvaluateEdited()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final IRange i = new IRange(0, 0.0, 1.0);
+    final TrackHandle h = timeline.interpolableAdd(i);
+    final TimelineCompiled c = timeline.compile();
+    final double[] output = new double[] { 0.75 };
+
+    c.evaluate(10, output);
+    Assert.assertTrue(0.75 == output[0]);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      20,
+      1.0));
+
+    c.evaluate(10, output);
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      output[0],
+      0.5));
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_STEP_MAXIMUM,
+      5,
+      0.0));
+
+    c.evaluate(10, output);
+    Assert.assertTrue(1.0 == output[0]);
+  }
+
+  @Test public void testEvaluateEditedConcurrent()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final IRange i =
+      new IRange(0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    final TrackHandle h = timeline.interpolableAdd(i);
+    final double[] output = new double[1];
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      10.0));
+
+    final TimelineCompiled c = timeline.compile();
+    c.evaluate(5, output);
+    Assert.assertEquals(5.0, output[0], 0.000000001);
+
+    timeline.editsConcurrentSetEnabled();
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      1.0));
+    timeline.step();
+
+    c.evaluate(5, output);
+    Assert.assertEquals(timeline.evaluate(h, 5), output[0], 0.0);
+    Assert.assertEquals(1.0, output[0], 0.0);
+
+    timeline.editsConcurrentSetDisabled();
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_STEP_MINIMUM,
+      8,
+      2.0));
+
+    c.evaluate(9, output);
+    Assert.assertEquals(timeline.evaluate(h, 9), output[0], 0.0);
+    Assert.assertEquals(2.0, output[0], 0.0);
+  }
+
+  @Test(expected = ConstraintError.class) public void testEvaluateNull()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.interpolableAdd(new IRange(0, 0.0, 1.0));
+    timeline.compile().evaluate(0, null);
+  }
+
+  @Test public void testEvaluateRandom()
+    throws ConstraintError
+  {
+    final Random random = new Random(0x5eed);
+    final ArrayList<TrackHandle> handles = new ArrayList<TrackHandle>();
+    final Timeline timeline =
+      TimelineCompiledTest.makeRandom(random, handles, 200);
+    final TimelineCompiled c = timeline.compile();
+    Assert.assertEquals(200, c.getTrackCount());
+
+    final double[] output = new double[c.getTrackCount()];
+    for (long time = 0; time < 150; ++time) {
+      Arrays.fill(output, Double.NaN);
+      c.evaluate(time, output);
+      TimelineCompiledTest.checkEqual(timeline, handles, output, time);
+    }
+
+    for (int index = 0; index < 200; ++index) {
+      final long time = random.nextInt(200) - 20;
+      Arrays.fill(output, Double.NaN);
+      c.evaluate(time, output);
+      TimelineCompiledTest.checkEqual(timeline, handles, output, time);
+    }
+  }
+
+  @Test(expected = ConstraintError.class) public void testEvaluateShort()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.interpolableAdd(new IRange(0, 0.0, 1.0));
+    timeline.interpolableAdd(new IRange(1, 0.0, 1.0));
+    timeline.compile().evaluate(0, new double[1]);
+  }
+}
@@ -0,0 +1,166 @@
+package com.io7m.jtimeline.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jaux.Constraints.ConstraintError;
+import com.io7m.jtimeline.InterpolationType;
+import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TimelineMapped;
+import com.io7m.jtimeline.TrackHandle;
+
+public class TimelineMappedTest
+{
+  private static void checkEqual(
+    final @Nonnull Timeline timeline,
+    final @Nonnull ArrayList<TrackHandle> handles,
+    final @Nonnull double[] output,
+    final long time,
+    final double tolerance)
+    throws ConstraintError
+  {
+    for (final TrackHandle h : handles) {
+      final double expected = timeline.evaluate(h, time);
+      final double actual = output[h.getIndex()];
+      if (Double.isNaN(expected)) {
+        Assert.assertTrue(Double.isNaN(actual));
+      } else {
+        Assert.assertEquals(expected, actual, tolerance);
+      }
+    }
+  }
+
+  private static @Nonnull Timeline makeRandom(
+    final @Nonnull Random random,
+    final @Nonnull ArrayList<TrackHandle> handles,
+    final int tracks)
+    throws ConstraintError
+  {
+    final InterpolationType[] types = InterpolationType.values();
+    final Timeline timeline = new Timeline();
+
+    for (int track = 0; track < tracks; ++track) {
+      final IRange i;
+      if ((track % 2) == 0) {
+        i = new IRange(track, 0.0, 1.0);
+      } else {
+        i =
+          new IRange(
+            track,
+            Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY);
+      }
+      i.interpolableSet(Double.NaN);
+
+      final TrackHandle h = timeline.interpolableAdd(i);
+      handles.add(h);
+
+      long time = random.nextInt(20);
+      final int count = random.nextInt(12);
+      for (int k = 0; k < count; ++k) {
+        timeline.keyframeAdd(h, new Keyframe(
+          types[random.nextInt(types.length)],
+          time,
+          (random.nextDouble() * 4.0) - 2.0));
+        time = time + 1 + random.nextInt(10);
+      }
+    }
+
+    return timeline;
+  }
+
+  private static void checkRandom(
+    final boolean single,
+    final double tolerance)
+    throws ConstraintError,
+      IOException
+  {
+    final Random random = new Random(0x5eed);
+    final ArrayList<TrackHandle> handles = new ArrayList<TrackHandle>();
+    final Timeline timeline =
+      TimelineMappedTest.makeRandom(random, handles, 200);
+
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      timeline.bakeWrite(file, 0, 150, single);
+
+      final TimelineMapped m = TimelineMapped.open(file);
+      Assert.assertEquals(200, m.getTrackCount());
+      Assert.assertEquals(0, m.getTimeLower());
+      Assert.assertEquals(150, m.getTimeUpper());
+      Assert.assertEquals(single, m.isSinglePrecision());
+
+      final double[] output = new double[m.getTrackCount()];
+      for (long time = 0; time <= 150; ++time) {
+        Arrays.fill(output, Double.NaN);
+        m.evaluate(time, output);
+        TimelineMappedTest.checkEqual(
+          timeline,
+          handles,
+          output,
+          time,
+          tolerance);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test(expected = ConstraintError.class) public void testEvaluateRange()
+    throws ConstraintError,
+      IOException
+  {
+    final Timeline timeline = new Timeline();
+    timeline.interpolableAdd(new IRange(0, 0.0, 1.0));
+
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      timeline.bakeWrite(file, 10, 20, false);
+      TimelineMapped.open(file).evaluate(21, new double[1]);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test(expected = IOException.class) public void testOpenBadMagic()
+    throws ConstraintError,
+      IOException
+  {
+    final File file = File.createTempFile("jtimeline", ".bin");
+    try {
+      final FileOutputStream stream = new FileOutputStream(file);
+      try {
+        stream.write(new byte[64]);
+      } finally {
+        stream.close();
+      }
+      TimelineMapped.open(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void testWriteOpenDouble()
+    throws ConstraintError,
+      IOException
+  {
+    TimelineMappedTest.checkRandom(false, 0.000000001);
+  }
+
+  @Test public void testWriteOpenSingle()
+    throws ConstraintError,
+      IOException
+  {
+    TimelineMappedTest.checkRandom(true, 0.000001);
+  }
+}
@@ -1,7 +1,15 @@
 package com.io7m.jtimeline.tests;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
@@ -14,13 +22,86 @@ import com.io7m.jaux.Constraints.ConstraintError;
 import com.io7m.jaux.functional.Function;
 import com.io7m.jaux.functional.Pair;
 import com.io7m.jaux.functional.Procedure;
+import com.io7m.jtimeline.GroupHandle;
 import com.io7m.jtimeline.InterpolableScalarReal;
 import com.io7m.jtimeline.InterpolationType;
 import com.io7m.jtimeline.Keyframe;
+import com.io7m.jtimeline.KeyframeCallback;
 import com.io7m.jtimeline.Timeline;
+import com.io7m.jtimeline.TrackHandle;
 
 public class TimelineTest
 {
+  private static class IBounds implements InterpolableScalarReal
+  {
+    private static final AtomicLong id_pool;
+    private double                  value   = 0.0;
+    private final long              id;
+    private double                  minimum = 0.0;
+    private double                  maximum = 1.0;
+    private int                     calls   = 0;
+
+    static {
+      id_pool = new AtomicLong(0);
+    }
+
+    IBounds()
+    {
+      this.id = IBounds.id_pool.incrementAndGet();
+    }
+
+    int getCalls()
+    {
+      return this.calls;
+    }
+
+    @Override public double interpolableGet()
+    {
+      return this.value;
+    }
+
+    @Override public String interpolableGetGroup()
+    {
+      return "com.io7m.jtimeline";
+    }
+
+    @Override public long interpolableGetID()
+    {
+      return this.id;
+    }
+
+    @Override public String interpolableGetName()
+    {
+      return "ibounds";
+    }
+
+    @Override public double interpolableMaximum()
+    {
+      this.calls = this.calls + 1;
+      return this.maximum;
+    }
+
+    @Override public double interpolableMinimum()
+    {
+      this.calls = this.calls + 1;
+      return this.minimum;
+    }
+
+    @Override public void interpolableSet(
+      final double x)
+    {
+      this.value = x;
+    }
+
+    void setBounds(
+      final double min,
+      final double max)
+    {
+      this.minimum = min;
+      this.maximum = max;
+    }
+  }
+
   private static class IGroup implements InterpolableScalarReal
   {
     private static final AtomicLong id_pool;
@@ -180,6 +261,65 @@ public class TimelineTest
     }
   }
 
+  private static class ISetCounter implements InterpolableScalarReal
+  {
+    private static final AtomicLong id_pool;
+    private double                  value = 0.0;
+    private final long              id;
+    private int                     sets  = 0;
+
+    static {
+      id_pool = new AtomicLong(0);
+    }
+
+    ISetCounter()
+    {
+      this.id = ISetCounter.id_pool.incrementAndGet();
+    }
+
+    int getSets()
+    {
+      return this.sets;
+    }
+
+    @Override public double interpolableGet()
+    {
+      return this.value;
+    }
+
+    @Override public String interpolableGetGroup()
+    {
+      return "com.io7m.jtimeline";
+    }
+
+    @Override public long interpolableGetID()
+    {
+      return this.id;
+    }
+
+    @Override public String interpolableGetName()
+    {
+      return "isetcounter";
+    }
+
+    @Override public double interpolableMaximum()
+    {
+      return 1.0;
+    }
+
+    @Override public double interpolableMinimum()
+    {
+      return 0.0;
+    }
+
+    @Override public void interpolableSet(
+      final double x)
+    {
+      this.value = x;
+      this.sets = this.sets + 1;
+    }
+  }
+
   private static class ISimple implements InterpolableScalarReal
   {
     private static final AtomicLong id_pool;
@@ -358,6 +498,537 @@ public class TimelineTest
     timeline.interpolableAdd(inn);
   }
 
+  @Test public void testBake()
+    throws ConstraintError
+  {
+    for (final boolean single : new boolean[] { false, true }) {
+      final Random random = new Random(0x5eedL);
+      final Timeline normal = new Timeline();
+      final Timeline baked = new Timeline();
+      final List<String> normal_calls = new ArrayList<String>();
+      final List<String> baked_calls = new ArrayList<String>();
+      final List<ISetCounter> normal_values = new ArrayList<ISetCounter>();
+      final List<ISetCounter> baked_values = new ArrayList<ISetCounter>();
+      final InterpolationType[] types = InterpolationType.values();
+
+      for (int track = 0; track < 20; ++track) {
+        final ISetCounter vn = new ISetCounter();
+        final ISetCounter vb = new ISetCounter();
+        final TrackHandle hn = normal.interpolableAdd(vn);
+        final TrackHandle hb = baked.interpolableAdd(vb);
+        normal_values.add(vn);
+        baked_values.add(vb);
+
+        long time = random.nextInt(20);
+        for (int index = 0; index < 4; ++index) {
+          final InterpolationType type = types[random.nextInt(types.length)];
+          final double value = random.nextDouble();
+          final String name = track + ":" + time;
+
+          normal.keyframeAdd(hn, new Keyframe(
+            type,
+            time,
+            value,
+            new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+              @Override public void call(
+                final Pair<InterpolableScalarReal, Keyframe> x)
+              {
+                normal_calls.add(name);
+              }
+            }));
+          baked.keyframeAdd(hb, new Keyframe(
+            type,
+            time,
+            value,
+            new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+              @Override public void call(
+                final Pair<InterpolableScalarReal, Keyframe> x)
+              {
+                baked_calls.add(name);
+              }
+            }));
+          time += 1 + random.nextInt(10);
+        }
+      }
+
+      normal.loopSetEnabled(40);
+      baked.loopSetEnabled(40);
+      baked.bake(0, 40, single);
+      Assert.assertTrue(baked.bakeIsEnabled());
+
+      for (int frame = 0; frame < 41 * 3; ++frame) {
+        normal.step();
+        baked.step();
+        for (int track = 0; track < 20; ++track) {
+          final ISetCounter vn = normal_values.get(track);
+          final ISetCounter vb = baked_values.get(track);
+          Assert.assertEquals(vn.getSets(), vb.getSets());
+          if (single) {
+            Assert.assertTrue(vb.interpolableGet() == (float) vn
+              .interpolableGet());
+          } else {
+            Assert.assertTrue(vb.interpolableGet() == vn.interpolableGet());
+          }
+        }
+      }
+
+      Collections.sort(normal_calls);
+      Collections.sort(baked_calls);
+      Assert.assertEquals(normal_calls, baked_calls);
+      Assert.assertFalse(normal_calls.isEmpty());
+    }
+  }
+
+  @Test public void testBakeCurrentTimeSet()
+    throws ConstraintError
+  {
+    final Timeline normal = new Timeline();
+    final Timeline baked = new Timeline();
+    final ISetCounter vn = new ISetCounter();
+    final ISetCounter vb = new ISetCounter();
+    final TrackHandle hn = normal.interpolableAdd(vn);
+    final TrackHandle hb = baked.interpolableAdd(vb);
+
+    for (final Timeline t : new Timeline[] { normal, baked }) {
+      final TrackHandle h = (t == normal) ? hn : hb;
+      t.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        0,
+        0.0));
+      t.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        10,
+        1.0));
+    }
+
+    baked.bake(0, 100, false);
+    normal.currentTimeSet(50);
+    baked.currentTimeSet(50);
+    normal.step();
+    baked.step();
+
+    Assert.assertTrue(1.0 == vn.interpolableGet());
+    Assert.assertTrue(1.0 == vb.interpolableGet());
+    Assert.assertEquals(vn.getSets(), vb.getSets());
+
+    normal.step();
+    baked.step();
+    Assert.assertEquals(vn.getSets(), vb.getSets());
+  }
+
+  @Test public void testBakeDiscard()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter it = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      4,
+      1.0));
+
+    timeline.bake(0, 4, false);
+    Assert.assertTrue(timeline.bakeIsEnabled());
+    timeline.step();
+    Assert.assertTrue(0.0 == it.interpolableGet());
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      2,
+      1.0));
+    Assert.assertFalse(timeline.bakeIsEnabled());
+    timeline.step();
+    Assert.assertTrue(0.5 == it.interpolableGet());
+
+    timeline.bake(0, 4, false);
+    timeline.bakeDiscard();
+    Assert.assertFalse(timeline.bakeIsEnabled());
+  }
+
+  @Test public void testBakeOverflow()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final TrackHandle h = timeline.interpolableAdd(new ISetCounter());
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+
+    try {
+      timeline.bake(0, Long.MAX_VALUE, false);
+      Assert.fail("Bake accepted");
+    } catch (final ConstraintError e) {
+      // Expected.
+    }
+    Assert.assertFalse(timeline.bakeIsEnabled());
+
+    final Timeline empty = new Timeline();
+    try {
+      empty.bake(0, Integer.MAX_VALUE - 1, false);
+      Assert.fail("Bake accepted");
+    } catch (final ConstraintError e) {
+      // Expected.
+    }
+    Assert.assertFalse(empty.bakeIsEnabled());
+  }
+
+  @Test(expected = ConstraintError.class) public void testBakeRange()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.bake(4, 3, false);
+  }
+
+  @Test public void testBoundsLive()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final IBounds it = new IBounds();
+    final TrackHandle h = timeline.interpolableAdd(it);
+    Assert.assertFalse(timeline.boundsCaptureIsEnabled(h));
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      10.0));
+
+    for (int index = 0; index < 5; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(1.0, it.interpolableGet(), 0.0);
+    Assert.assertEquals(10, it.getCalls());
+
+    it.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    timeline.step();
+    Assert.assertEquals(5.0, it.interpolableGet(), 0.000001);
+
+    timeline.boundsCaptureSetEnabled(h);
+    it.setBounds(0.0, 2.0);
+    timeline.step();
+    Assert.assertEquals(6.0, it.interpolableGet(), 0.000001);
+
+    timeline.boundsCaptureSetDisabled(h);
+    Assert.assertFalse(timeline.boundsCaptureIsEnabled(h));
+    timeline.step();
+    Assert.assertEquals(2.0, it.interpolableGet(), 0.0);
+  }
+
+  @Test public void testBoundsRefresh()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final IBounds it = new IBounds();
+    final TrackHandle h = timeline.interpolableAdd(it);
+    timeline.boundsCaptureSetEnabled(h);
+    Assert.assertTrue(timeline.boundsCaptureIsEnabled(h));
+    final int calls = it.getCalls();
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      10.0));
+
+    for (int index = 0; index < 5; ++index) {
+      timeline.step();
+    }
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      1.0));
+    Assert.assertEquals(calls, it.getCalls());
+
+    it.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      1.0));
+
+    timeline.boundsRefresh(h);
+    Assert.assertEquals(calls + 2, it.getCalls());
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      6.0));
+
+    it.setBounds(0.0, 2.0);
+    timeline.boundsRefreshAll();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h, 20),
+      2.0));
+  }
+
+  @Test public void testCallbacksAsynchronous()
+    throws Exception
+  {
+    final Timeline timeline = new Timeline();
+    final int tracks = 8;
+    final int frames = 100;
+    final List<List<Long>> calls = new ArrayList<List<Long>>();
+    final AtomicLong inline = new AtomicLong(0);
+    final Thread stepper = Thread.currentThread();
+
+    for (int track = 0; track < tracks; ++track) {
+      final List<Long> track_calls =
+        Collections.synchronizedList(new ArrayList<Long>());
+      calls.add(track_calls);
+
+      final TrackHandle h =
+        timeline.interpolableAdd(new ISimple("async", "t" + track));
+      for (int frame = 0; frame < frames; ++frame) {
+        timeline.keyframeAdd(h, new Keyframe(
+          InterpolationType.INTERPOLATE_LINEAR,
+          frame,
+          0.0,
+          new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+            @Override public void call(
+              final Pair<InterpolableScalarReal, Keyframe> x)
+            {
+              if (Thread.currentThread() == stepper) {
+                inline.incrementAndGet();
+              }
+              if ((x.second.getTime() % 10) == 0) {
+                Thread.yield();
+              }
+              track_calls.add(Long.valueOf(x.second.getTime()));
+            }
+          }));
+      }
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    Assert.assertFalse(timeline.callbacksIsAsynchronous());
+    timeline.callbacksSetAsynchronous(exec);
+    Assert.assertTrue(timeline.callbacksIsAsynchronous());
+
+    try {
+      for (int frame = 0; frame < frames; ++frame) {
+        timeline.step();
+      }
+    } finally {
+      exec.shutdown();
+      Assert.assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    Assert.assertEquals(0, inline.get());
+    for (int track = 0; track < tracks; ++track) {
+      final List<Long> track_calls = calls.get(track);
+      Assert.assertEquals(frames, track_calls.size());
+      for (int frame = 0; frame < frames; ++frame) {
+        Assert.assertEquals(frame, track_calls.get(frame).longValue());
+      }
+    }
+
+    timeline.callbacksSetSynchronous();
+    Assert.assertFalse(timeline.callbacksIsAsynchronous());
+    timeline.currentTimeSet(0);
+    timeline.step();
+    Assert.assertEquals(tracks, inline.get());
+  }
+
+  @Test public void testCallbacksGet()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter v0 = new ISetCounter();
+    final ISetCounter v1 = new ISetCounter();
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+    final TrackHandle h1 = timeline.interpolableAdd(v1);
+    final KCallCounter counter = new KCallCounter();
+
+    for (final long time : new long[] { 0, 5, 9 }) {
+      timeline.keyframeAdd(h0, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        time,
+        0.0,
+        counter));
+    }
+    for (long time = 0; time < 10; ++time) {
+      if (time == 5) {
+        continue;
+      }
+      timeline.keyframeAdd(h1, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        time,
+        0.0));
+    }
+    timeline.keyframeAdd(h1, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      0.0,
+      counter));
+
+    final List<Pair<InterpolableScalarReal, Keyframe>> forward =
+      timeline.callbacksGet(1, 9);
+    Assert.assertEquals(3, forward.size());
+    Assert.assertSame(v0, forward.get(0).first);
+    Assert.assertEquals(5, forward.get(0).second.getTime());
+    Assert.assertSame(v1, forward.get(1).first);
+    Assert.assertEquals(5, forward.get(1).second.getTime());
+    Assert.assertSame(v0, forward.get(2).first);
+    Assert.assertEquals(9, forward.get(2).second.getTime());
+
+    final List<Pair<InterpolableScalarReal, Keyframe>> backward =
+      timeline.callbacksGet(9, 1);
+    Assert.assertEquals(3, backward.size());
+    for (int index = 0; index < 3; ++index) {
+      Assert.assertSame(
+        forward.get(2 - index).first,
+        backward.get(index).first);
+      Assert.assertSame(
+        forward.get(2 - index).second,
+        backward.get(index).second);
+    }
+
+    Assert.assertEquals(0, timeline.callbacksGet(6, 8).size());
+    Assert.assertEquals(1, timeline.callbacksGet(0, 0).size());
+
+    timeline.callbacksRun(9, 0);
+    Assert.assertEquals(4, counter.getCalled());
+    Assert.assertEquals(0, v0.getSets());
+    Assert.assertEquals(0, v1.getSets());
+  }
+
+  @Test public void testCallbacksGetModified()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter v0 = new ISetCounter();
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+    final KCallCounter counter = new KCallCounter();
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      3,
+      0.0,
+      counter));
+    Assert.assertEquals(1, timeline.callbacksGet(0, 10).size());
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      7,
+      0.0,
+      counter));
+    Assert.assertEquals(2, timeline.callbacksGet(0, 10).size());
+    Assert.assertEquals(1, timeline.callbacksGet(4, 10).size());
+  }
+
+  @Test public void testEditsConcurrent()
+    throws Exception
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter v = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(v);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      1.0));
+
+    Assert.assertFalse(timeline.editsConcurrentIsEnabled());
+    timeline.editsConcurrentSetEnabled();
+    Assert.assertTrue(timeline.editsConcurrentIsEnabled());
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      1.0));
+    Assert.assertEquals(0.5, timeline.evaluate(h, 5), 0.0);
+
+    timeline.currentTimeSet(5);
+    timeline.step();
+    Assert.assertEquals(1.0, v.interpolableGet(), 0.0);
+    Assert.assertEquals(1.0, timeline.evaluate(h, 5), 0.0);
+
+    timeline.editsConcurrentSetDisabled();
+    Assert.assertFalse(timeline.editsConcurrentIsEnabled());
+  }
+
+  @Test public void testEditsConcurrentThreads()
+    throws Exception
+  {
+    final Timeline timeline = new Timeline();
+    final int threads = 4;
+    final int edits = 200;
+    final double frames = edits * threads;
+    final List<TrackHandle> handles = new ArrayList<TrackHandle>();
+    final List<ISetCounter> values = new ArrayList<ISetCounter>();
+
+    for (int track = 0; track < 4; ++track) {
+      final ISetCounter v = new ISetCounter();
+      values.add(v);
+      handles.add(timeline.interpolableAdd(v));
+    }
+
+    timeline.loopSetEnabled((edits * threads) - 1);
+    timeline.editsConcurrentSetEnabled();
+
+    final ExecutorService exec = Executors.newFixedThreadPool(threads);
+    final AtomicLong done = new AtomicLong(0);
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int thread = 0; thread < threads; ++thread) {
+        final int offset = thread;
+        futures.add(exec.submit(new Callable<Void>() {
+          @Override public Void call()
+            throws Exception
+          {
+            try {
+              for (int edit = 0; edit < edits; ++edit) {
+                final long time = (edit * threads) + offset;
+                for (final TrackHandle h : handles) {
+                  timeline.keyframeAdd(h, new Keyframe(
+                    InterpolationType.INTERPOLATE_LINEAR,
+                    time,
+                    time / frames));
+                }
+              }
+              return null;
+            } finally {
+              done.incrementAndGet();
+            }
+          }
+        }));
+      }
+
+      while (done.get() < threads) {
+        timeline.step();
+      }
+      for (final Future<Void> f : futures) {
+        f.get();
+      }
+    } finally {
+      exec.shutdown();
+    }
+
+    timeline.currentTimeSet(edits);
+    timeline.step();
+    for (int track = 0; track < 4; ++track) {
+      final TrackHandle h = handles.get(track);
+      final double x = values.get(track).interpolableGet();
+      Assert.assertEquals(edits / frames, x, 0.0);
+      for (long time = 0; time < frames; ++time) {
+        Assert.assertEquals(time / frames, timeline.evaluate(h, time), 0.0);
+      }
+    }
+  }
+
   @Test public void testGetGroups()
     throws ConstraintError
   {
@@ -436,6 +1107,64 @@ public class TimelineTest
       }));
   }
 
+  @Test public void testHandleEvaluate()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it0 = new ITrivial();
+    final ITrivial it1 = new ITrivial();
+
+    final TrackHandle h0 = timeline.interpolableAdd(it0);
+    final TrackHandle h1 = timeline.interpolableAdd(it1);
+    Assert.assertEquals(0, h0.getIndex());
+    Assert.assertEquals(1, h1.getIndex());
+    Assert.assertSame(it0, h0.getInterpolable());
+    Assert.assertSame(h1, timeline.interpolableGetHandle(it1));
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      0.0));
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      20,
+      1.0));
+
+    it0.interpolableSet(0.25);
+    Assert.assertTrue(0.25 == timeline.evaluate(h0, 0));
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h0, 15),
+      0.5));
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h0, 100),
+      1.0));
+    Assert.assertTrue(0.25 == it0.interpolableGet());
+    Assert.assertEquals(0, timeline.currentTimeGet());
+  }
+
+  @Test(expected = ConstraintError.class) public void testHandleForeign()
+    throws ConstraintError
+  {
+    final Timeline timeline0 = new Timeline();
+    final Timeline timeline1 = new Timeline();
+    final ITrivial it = new ITrivial();
+
+    final TrackHandle h = timeline0.interpolableAdd(it);
+    timeline1.interpolableAdd(it);
+    timeline1.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+  }
+
+  @Test(expected = ConstraintError.class) public void testHandleKeyframeNull()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final TrackHandle h = timeline.interpolableAdd(new ITrivial());
+    timeline.keyframeAdd(h, null);
+  }
+
   @Test public void testInitialize()
   {
     final Timeline timeline = new Timeline();
@@ -468,6 +1197,143 @@ public class TimelineTest
     Assert.assertEquals(2, kc.getCalled());
   }
 
+  @Test public void testKeyframeAddAllArrays()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      1.0));
+
+    final long[] times = { 20, 0, 30 };
+    final double[] values = { 0.0, 0.0, 1.0 };
+    final InterpolationType[] types =
+      {
+        InterpolationType.INTERPOLATE_STEP_MINIMUM,
+        InterpolationType.INTERPOLATE_LINEAR,
+        InterpolationType.INTERPOLATE_LINEAR };
+    timeline.keyframeAddAll(h, times, values, types);
+
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h, 5),
+      0.5));
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h, 15),
+      0.5));
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h, 25),
+      0.0));
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      timeline.evaluate(h, 30),
+      1.0));
+  }
+
+  @Test public void testKeyframeAddAllCollection()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+    final TrackHandle h = timeline.interpolableAdd(it);
+    final KCallCounter counter = new KCallCounter();
+
+    final ArrayList<Keyframe> ks = new ArrayList<Keyframe>();
+    for (int index = 9; index >= 0; --index) {
+      ks.add(new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        index * 2,
+        index / 10.0,
+        counter));
+    }
+    timeline.keyframeAddAll(h, ks);
+
+    for (int index = 0; index < 20; ++index) {
+      timeline.step();
+      Assert.assertEquals((index / 2) + 1, counter.getCalled());
+      Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+        it.interpolableGet(),
+        Math.min(index, 18) / 20.0));
+    }
+  }
+
+  @Test public void testKeyframeAddAllDuplicate()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      1.0));
+
+    final long[] times = { 0, 10, 20 };
+    final double[] values = { 0.0, 0.0, 0.0 };
+    final InterpolationType[] types =
+      {
+        InterpolationType.INTERPOLATE_LINEAR,
+        InterpolationType.INTERPOLATE_LINEAR,
+        InterpolationType.INTERPOLATE_LINEAR };
+
+    try {
+      timeline.keyframeAddAll(h, times, values, types);
+      Assert.fail("Duplicate keyframe accepted");
+    } catch (final ConstraintError e) {
+      // Expected.
+    }
+
+    it.interpolableSet(0.25);
+    Assert.assertTrue(0.25 == timeline.evaluate(h, 5));
+    Assert.assertTrue(1.0 == timeline.evaluate(h, 25));
+  }
+
+  @Test(expected = ConstraintError.class) public void testKeyframeAddAllSelf()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final TrackHandle h = timeline.interpolableAdd(new ITrivial());
+
+    final long[] times = { 5, 0, 5 };
+    final double[] values = { 0.0, 0.0, 0.0 };
+    final InterpolationType[] types =
+      {
+        InterpolationType.INTERPOLATE_LINEAR,
+        InterpolationType.INTERPOLATE_LINEAR,
+        InterpolationType.INTERPOLATE_LINEAR };
+    timeline.keyframeAddAll(h, times, values, types);
+  }
+
+  @Test public void testKeyframeAddAppend()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    for (int index = 0; index < 1000; ++index) {
+      timeline.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_STEP_MINIMUM,
+        index * 2,
+        (index % 2) == 0 ? 0.0 : 1.0));
+    }
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_STEP_MINIMUM,
+      501,
+      0.5));
+
+    Assert.assertTrue(0.0 == timeline.evaluate(h, 0));
+    Assert.assertTrue(1.0 == timeline.evaluate(h, 3));
+    Assert.assertTrue(0.0 == timeline.evaluate(h, 500));
+    Assert.assertTrue(0.5 == timeline.evaluate(h, 501));
+    Assert.assertTrue(1.0 == timeline.evaluate(h, 502));
+    Assert.assertTrue(1.0 == timeline.evaluate(h, 5000));
+  }
+
   @Test(expected = ConstraintError.class) public void testKeyframeAddTwice()
     throws ConstraintError
   {
@@ -499,6 +1365,51 @@ public class TimelineTest
     timeline.keyframeAdd(it, k);
   }
 
+  @Test public void testKeyframeAddUnordered()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+
+    timeline.interpolableAdd(it);
+    timeline.keyframeAdd(it, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      20,
+      0.0));
+    timeline.keyframeAdd(it, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(it, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      1.0));
+
+    timeline.currentTimeSet(5);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      0.5));
+
+    timeline.currentTimeSet(10);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      1.0));
+
+    timeline.currentTimeSet(15);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      0.5));
+
+    timeline.currentTimeSet(30);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      0.0));
+  }
+
   @Test public void testKeyframeInterpExp()
     throws ConstraintError
   {
@@ -1567,6 +2478,46 @@ public class TimelineTest
     Assert.assertEquals(1, kc.getCalled());
   }
 
+  @Test public void testKeyframeSeekLarge()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+    timeline.interpolableAdd(it);
+
+    for (int index = 0; index < 200; ++index) {
+      final double value = ((index % 2) == 0) ? 0.0 : 1.0;
+      timeline.keyframeAdd(it, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        index * 3,
+        value));
+    }
+
+    final Random random = new Random(0x10203040);
+    for (int index = 0; index < 1000; ++index) {
+      final long time = random.nextInt(700) - 50;
+      timeline.currentTimeSet(time);
+      it.interpolableSet(0.5);
+      timeline.step();
+
+      final double expected;
+      if (time < 0) {
+        expected = 0.5;
+      } else if (time >= (199 * 3)) {
+        expected = 1.0;
+      } else {
+        final long segment = time / 3;
+        final double factor = (time % 3) / 3.0;
+        final double v0 = ((segment % 2) == 0) ? 0.0 : 1.0;
+        expected = v0 + (factor * ((1.0 - v0) - v0));
+      }
+
+      Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+        it.interpolableGet(),
+        expected));
+    }
+  }
+
   @Test public void testKeyframeSetTime()
     throws ConstraintError
   {
@@ -1614,6 +2565,114 @@ public class TimelineTest
     timeline.loopSetEnabled(-1);
   }
 
+  @Test public void testStepDormant()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter it = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      2,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      4,
+      1.0));
+
+    for (int index = 0; index < 10; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(3, it.getSets());
+    Assert.assertTrue(1.0 == it.interpolableGet());
+
+    timeline.currentTimeSet(3);
+    for (int index = 0; index < 10; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(5, it.getSets());
+    Assert.assertTrue(1.0 == it.interpolableGet());
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      20,
+      0.0));
+    Assert.assertEquals(13, timeline.currentTimeGet());
+    timeline.step();
+    Assert.assertEquals(6, it.getSets());
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      1.0 - (9.0 / 16.0)));
+  }
+
+  @Test public void testStepDormantLoop()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter it = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      1.0));
+    timeline.loopSetEnabled(9);
+
+    for (int index = 0; index < 30; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(3, it.getSets());
+  }
+
+  /**
+   * A keyframe callback of one value extends the keyframes of another value
+   * that has already reached its last keyframe in the same frame.
+   */
+
+  @Test public void testStepDormantWoken()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter v0 = new ISetCounter();
+    final ISetCounter v1 = new ISetCounter();
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+    final TrackHandle h1 = timeline.interpolableAdd(v1);
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      0.5));
+    timeline.keyframeAdd(h1, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      1.0,
+      new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+        @Override public void call(
+          final Pair<InterpolableScalarReal, Keyframe> x)
+        {
+          try {
+            timeline.keyframeAdd(h0, new Keyframe(
+              InterpolationType.INTERPOLATE_LINEAR,
+              8,
+              0.8));
+          } catch (final ConstraintError e) {
+            Assert.fail(e.getMessage());
+          }
+        }
+      }));
+
+    for (int index = 0; index <= 8; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(0.8, v0.interpolableGet(), 0.000001);
+    Assert.assertEquals(9, v0.getSets());
+  }
+
   @Test public void testStepLoop()
     throws ConstraintError
   {
@@ -1650,6 +2709,589 @@ public class TimelineTest
     timeline.step();
   }
 
+  @Test public void testStepBy()
+    throws ConstraintError
+  {
+    for (final boolean loop : new boolean[] { false, true }) {
+      final Random random = new Random(0x5eedL);
+      final Timeline normal = new Timeline();
+      final Timeline skipped = new Timeline();
+      final List<String> normal_calls = new ArrayList<String>();
+      final List<String> skipped_calls = new ArrayList<String>();
+      final List<ISetCounter> normal_values = new ArrayList<ISetCounter>();
+      final List<ISetCounter> skipped_values = new ArrayList<ISetCounter>();
+      final long[] firsts = new long[20];
+      final InterpolationType[] types = InterpolationType.values();
+
+      for (int track = 0; track < 20; ++track) {
+        final ISetCounter vn = new ISetCounter();
+        final ISetCounter vs = new ISetCounter();
+        final TrackHandle hn = normal.interpolableAdd(vn);
+        final TrackHandle hs = skipped.interpolableAdd(vs);
+        normal_values.add(vn);
+        skipped_values.add(vs);
+
+        long time = random.nextInt(20);
+        firsts[track] = time;
+        for (int index = 0; index < 4; ++index) {
+          final InterpolationType type = types[random.nextInt(types.length)];
+          final double value = random.nextDouble();
+          final String name = String.format("%03d:%02d", time, track);
+
+          normal.keyframeAdd(hn, new Keyframe(
+            type,
+            time,
+            value,
+            new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+              @Override public void call(
+                final Pair<InterpolableScalarReal, Keyframe> x)
+              {
+                normal_calls.add(name);
+              }
+            }));
+          skipped.keyframeAdd(hs, new Keyframe(
+            type,
+            time,
+            value,
+            new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+              @Override public void call(
+                final Pair<InterpolableScalarReal, Keyframe> x)
+              {
+                skipped_calls.add(name);
+              }
+            }));
+          time += 1 + random.nextInt(10);
+        }
+      }
+
+      if (loop) {
+        normal.loopSetEnabled(40);
+        skipped.loopSetEnabled(40);
+      }
+
+      for (int jump = 0; jump < 30; ++jump) {
+        final int frames = 1 + random.nextInt(loop ? 100 : 5);
+        for (int frame = 0; frame < frames; ++frame) {
+          normal.step();
+        }
+        skipped.stepBy(frames, true);
+
+        /**
+         * Values that have not reached their first keyframe at the final
+         * frame are not evaluated there, and so are only compared if they
+         * have.
+         */
+
+        final long last = skipped.currentTimeGet() - 1;
+        Assert.assertEquals(normal.currentTimeGet(), skipped.currentTimeGet());
+        for (int track = 0; track < 20; ++track) {
+          if ((last >= 0) && (firsts[track] > last)) {
+            continue;
+          }
+          final double xn = normal_values.get(track).interpolableGet();
+          final double xs = skipped_values.get(track).interpolableGet();
+          Assert.assertTrue(xn == xs);
+        }
+
+        final List<String> sorted = new ArrayList<String>(normal_calls);
+        Collections.sort(sorted);
+        Collections.sort(skipped_calls);
+        Assert.assertEquals(sorted, skipped_calls);
+        normal_calls.clear();
+        skipped_calls.clear();
+      }
+    }
+  }
+
+  @Test public void testStepByOrder()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final List<String> calls = new ArrayList<String>();
+    final ISetCounter v0 = new ISetCounter();
+    final ISetCounter v1 = new ISetCounter();
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+    final TrackHandle h1 = timeline.interpolableAdd(v1);
+
+    for (final long time : new long[] { 0, 5, 9 }) {
+      timeline.keyframeAdd(h0, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        time,
+        time / 10.0,
+        new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+          @Override public void call(
+            final Pair<InterpolableScalarReal, Keyframe> x)
+          {
+            calls.add("0:" + time);
+          }
+        }));
+    }
+    for (final long time : new long[] { 3, 5, 7 }) {
+      timeline.keyframeAdd(h1, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        time,
+        time / 10.0,
+        new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+          @Override public void call(
+            final Pair<InterpolableScalarReal, Keyframe> x)
+          {
+            calls.add("1:" + time);
+          }
+        }));
+    }
+
+    timeline.loopSetEnabled(9);
+    timeline.currentTimeSet(4);
+    timeline.stepTo(3, true);
+
+    Assert.assertEquals(4, timeline.currentTimeGet());
+    Assert.assertEquals(
+      Arrays.asList("0:5", "1:5", "1:7", "0:9", "0:0", "1:3"),
+      calls);
+    Assert.assertEquals(0.3, v1.interpolableGet(), 0.0);
+    Assert.assertEquals(0.3, v0.interpolableGet(), 0.000001);
+    Assert.assertEquals(1, v0.getSets());
+    Assert.assertEquals(1, v1.getSets());
+
+    calls.clear();
+    timeline.stepBy(2 + (10 * 1000), false);
+    Assert.assertEquals(6, timeline.currentTimeGet());
+    Assert.assertEquals(Arrays.asList("0:5", "1:5"), calls);
+
+    calls.clear();
+    timeline.stepBy(10 * 3, true);
+    Assert.assertEquals(6, timeline.currentTimeGet());
+    Assert.assertEquals(6 * 3, calls.size());
+  }
+
+  @Test public void testStepByFrames()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter v = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(v);
+    final List<String> calls = new ArrayList<String>();
+    final KeyframeCallback callback = new KeyframeCallback() {
+      @Override public void call(
+        final InterpolableScalarReal i,
+        final Keyframe k,
+        final long frame)
+      {
+        calls.add(k.getTime() + "@" + frame);
+      }
+    };
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      2,
+      0.0,
+      callback));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      5,
+      1.0,
+      callback));
+    timeline.loopSetEnabled(9);
+
+    timeline.stepTo(2, true);
+    Assert.assertEquals(Arrays.asList("2@2"), calls);
+
+    calls.clear();
+    timeline.stepBy(10, true);
+    Assert.assertEquals(3, timeline.currentTimeGet());
+    Assert.assertEquals(Arrays.asList("5@2", "2@2"), calls);
+
+    calls.clear();
+    timeline.callbacksRun(0, 9);
+    Assert.assertEquals(Arrays.asList("2@3", "5@3"), calls);
+  }
+
+  @Test(expected = ConstraintError.class) public void testStepByZero()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.stepBy(0, true);
+  }
+
+  @Test public void testStepByNegative()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.currentTimeSet(-10);
+    timeline.stepBy(Long.MAX_VALUE, false);
+    Assert.assertEquals(Long.MAX_VALUE - 10, timeline.currentTimeGet());
+
+    timeline.currentTimeSet(-10);
+    timeline.stepTo(Long.MAX_VALUE - 11, false);
+    Assert.assertEquals(Long.MAX_VALUE - 10, timeline.currentTimeGet());
+  }
+
+  @Test(expected = ConstraintError.class) public void testStepByOverflow()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.currentTimeSet(10);
+    timeline.stepBy(Long.MAX_VALUE - 8, false);
+  }
+
+  @Test(expected = ConstraintError.class) public
+    void
+    testStepToOverflowNegative()
+      throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.currentTimeSet(-10);
+    timeline.stepTo(Long.MAX_VALUE - 10, false);
+  }
+
+  @Test(expected = ConstraintError.class) public void testStepToPast()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.currentTimeSet(10);
+    timeline.stepTo(9, true);
+  }
+
+  @Test(expected = ConstraintError.class) public void testStepToPastLoop()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    timeline.loopSetEnabled(20);
+    timeline.currentTimeSet(10);
+    timeline.stepTo(21, true);
+  }
+
+  @Test public void testStepGroup()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISimple ui0 = new ISimple("ui", "a");
+    final ISimple world0 = new ISimple("world", "a");
+    final ISimple effects0 = new ISimple("effects", "a");
+    final GroupHandle ui = timeline.groupGetHandle("ui");
+    final GroupHandle both = timeline.groupGetHandle(Arrays.asList(
+      "ui",
+      "effects",
+      "ui"));
+
+    final ISimple[] values = new ISimple[] { ui0, world0, effects0 };
+    for (final ISimple v : values) {
+      final TrackHandle h = timeline.interpolableAdd(v);
+      timeline.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        0,
+        0.0));
+      timeline.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        8,
+        1.0));
+    }
+
+    /**
+     * The handles were created before the values were added.
+     */
+
+    timeline.currentTimeSet(2);
+    timeline.stepGroup(ui);
+    Assert.assertEquals(3, timeline.currentTimeGet());
+    Assert.assertTrue(0.25 == ui0.interpolableGet());
+    Assert.assertTrue(0.0 == world0.interpolableGet());
+    Assert.assertTrue(0.0 == effects0.interpolableGet());
+
+    timeline.stepGroup(both);
+    Assert.assertTrue(0.375 == ui0.interpolableGet());
+    Assert.assertTrue(0.0 == world0.interpolableGet());
+    Assert.assertTrue(0.375 == effects0.interpolableGet());
+
+    timeline.step();
+    Assert.assertTrue(0.5 == ui0.interpolableGet());
+    Assert.assertTrue(0.5 == world0.interpolableGet());
+    Assert.assertTrue(0.5 == effects0.interpolableGet());
+  }
+
+  @Test(expected = ConstraintError.class) public void testStepGroupForeign()
+    throws ConstraintError
+  {
+    final Timeline t0 = new Timeline();
+    final Timeline t1 = new Timeline();
+    t0.stepGroup(t1.groupGetHandle("ui"));
+  }
+
+  @Test public void testStepLoopInterpolation()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ITrivial it = new ITrivial();
+
+    timeline.interpolableAdd(it);
+    timeline.keyframeAdd(it, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(it, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      4,
+      1.0));
+    timeline.keyframeAdd(it, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      8,
+      0.0));
+    timeline.loopSetEnabled(8);
+
+    final double[] expected =
+      { 0.0, 0.25, 0.5, 0.75, 1.0, 0.75, 0.5, 0.25, 0.0 };
+
+    for (int index = 0; index < 27; ++index) {
+      final long time = timeline.currentTimeGet();
+      Assert.assertEquals(index % 9, time);
+      timeline.step();
+      Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+        it.interpolableGet(),
+        expected[(int) time]));
+    }
+
+    timeline.currentTimeSet(6);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      0.5));
+
+    timeline.currentTimeSet(1);
+    timeline.step();
+    Assert.assertTrue(ApproximatelyEqualDouble.approximatelyEqual(
+      it.interpolableGet(),
+      0.25));
+  }
+
+  @Test public void testStepParallel()
+    throws ConstraintError
+  {
+    final Random random = new Random(0x12345678L);
+    final Timeline serial = new Timeline();
+    final Timeline parallel = new Timeline();
+    final List<String> serial_calls = new ArrayList<String>();
+    final List<String> parallel_calls = new ArrayList<String>();
+    final Thread thread = Thread.currentThread();
+    final List<ISetCounter> serial_values = new ArrayList<ISetCounter>();
+    final List<ISetCounter> parallel_values = new ArrayList<ISetCounter>();
+    final InterpolationType[] types = InterpolationType.values();
+
+    for (int track = 0; track < 4000; ++track) {
+      final ISetCounter vs = new ISetCounter();
+      final ISetCounter vp = new ISetCounter();
+      final TrackHandle hs = serial.interpolableAdd(vs);
+      final TrackHandle hp = parallel.interpolableAdd(vp);
+      serial_values.add(vs);
+      parallel_values.add(vp);
+
+      long time = random.nextInt(8);
+      for (int index = 0; index < 8; ++index) {
+        final InterpolationType type = types[random.nextInt(types.length)];
+        final double value = random.nextDouble() + 1.0;
+        final String name = track + ":" + time;
+
+        serial.keyframeAdd(hs, new Keyframe(
+          type,
+          time,
+          value,
+          new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+            @Override public void call(
+              final Pair<InterpolableScalarReal, Keyframe> x)
+            {
+              serial_calls.add(name);
+            }
+          }));
+        parallel.keyframeAdd(hp, new Keyframe(
+          type,
+          time,
+          value,
+          new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+            @Override public void call(
+              final Pair<InterpolableScalarReal, Keyframe> x)
+            {
+              Assert.assertSame(thread, Thread.currentThread());
+              parallel_calls.add(name);
+            }
+          }));
+        time += 1 + random.nextInt(8);
+      }
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      parallel.parallelSetEnabled(executor, 4);
+      Assert.assertTrue(parallel.parallelIsEnabled());
+
+      for (int frame = 0; frame < 80; ++frame) {
+        serial.step();
+        parallel.step();
+        for (int track = 0; track < 4000; ++track) {
+          final double xs = serial_values.get(track).interpolableGet();
+          final double xp = parallel_values.get(track).interpolableGet();
+          Assert.assertTrue(xs == xp);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(32000, serial_calls.size());
+    Assert.assertEquals(serial_calls, parallel_calls);
+
+    parallel.parallelSetDisabled();
+    Assert.assertFalse(parallel.parallelIsEnabled());
+  }
+
+  /**
+   * Callbacks are deferred until every value has been assigned, even when
+   * too few values require evaluation for any work to be divided.
+   */
+
+  @Test public void testStepParallelSmall()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter v0 = new ISetCounter();
+    final ISetCounter v1 = new ISetCounter();
+    final TrackHandle h0 = timeline.interpolableAdd(v0);
+    final TrackHandle h1 = timeline.interpolableAdd(v1);
+    final List<Double> observed = new ArrayList<Double>();
+
+    timeline.keyframeAdd(h0, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.25,
+      new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+        @Override public void call(
+          final Pair<InterpolableScalarReal, Keyframe> x)
+        {
+          observed.add(Double.valueOf(v1.interpolableGet()));
+        }
+      }));
+    timeline.keyframeAdd(h1, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.5));
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      timeline.parallelSetEnabled(executor, 4);
+      timeline.step();
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(Arrays.asList(Double.valueOf(0.5)), observed);
+    Assert.assertEquals(0.25, v0.interpolableGet(), 0.0);
+  }
+
+  @Test public void testStepParallelBakedGrouped()
+    throws ConstraintError
+  {
+    for (final boolean baked : new boolean[] { false, true }) {
+      final Timeline timeline = new Timeline();
+      final ISimple v0 = new ISimple("ui", "a");
+      final ISimple v1 = new ISimple("ui", "b");
+      final TrackHandle h0 = timeline.interpolableAdd(v0);
+      final TrackHandle h1 = timeline.interpolableAdd(v1);
+      final List<Double> observed = new ArrayList<Double>();
+
+      timeline.keyframeAdd(h0, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        0,
+        0.25,
+        new Procedure<Pair<InterpolableScalarReal, Keyframe>>() {
+          @Override public void call(
+            final Pair<InterpolableScalarReal, Keyframe> x)
+          {
+            observed.add(Double.valueOf(v1.interpolableGet()));
+          }
+        }));
+      timeline.keyframeAdd(h1, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        0,
+        0.5));
+
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        timeline.parallelSetEnabled(executor, 4);
+        if (baked) {
+          timeline.bake(0, 4, false);
+          timeline.step();
+        } else {
+          timeline.stepGroup(timeline.groupGetHandle("ui"));
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      Assert.assertEquals(Arrays.asList(Double.valueOf(0.5)), observed);
+      Assert.assertEquals(0.25, v0.interpolableGet(), 0.0);
+    }
+  }
+
+  @Test public void testStepParallelCallbackThrows()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final List<String> calls = new ArrayList<String>();
+
+    for (int track = 0; track < 3; ++track) {
+      final int number = track;
+      final TrackHandle h = timeline.interpolableAdd(new ISetCounter());
+      timeline.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        0,
+        0.0,
+        new KeyframeCallback() {
+          @Override public void call(
+            final InterpolableScalarReal i,
+            final Keyframe k,
+            final long frame)
+          {
+            if (number == 0) {
+              throw new IllegalStateException("Callback failed");
+            }
+            calls.add(number + "@" + k.getTime() + "/f" + frame);
+          }
+        }));
+      timeline.keyframeAdd(h, new Keyframe(
+        InterpolationType.INTERPOLATE_LINEAR,
+        10,
+        1.0));
+    }
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      timeline.parallelSetEnabled(executor, 4);
+      try {
+        timeline.step();
+        Assert.fail("Callback did not raise an exception");
+      } catch (final IllegalStateException e) {
+        // Expected.
+      }
+      timeline.step();
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(new ArrayList<String>(), calls);
+  }
+
+  @Test(expected = ConstraintError.class) public
+    void
+    testStepParallelInvalid()
+      throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      timeline.parallelSetEnabled(executor, 0);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test public void testStepNothing()
     throws ConstraintError
   {
@@ -1663,4 +3305,75 @@ public class TimelineTest
     Assert.assertEquals(1, timeline.currentTimeGet());
     Assert.assertTrue(0.0 == it.interpolableGet());
   }
+
+  @Test public void testSuppression()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter it = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_STEP_MINIMUM,
+      0,
+      0.5));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      10,
+      0.5));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      20,
+      1.0));
+
+    Assert.assertFalse(timeline.suppressionIsEnabled(h));
+    timeline.suppressionSetEnabled(h, 0.0);
+    Assert.assertTrue(timeline.suppressionIsEnabled(h));
+
+    for (int index = 0; index <= 20; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(11, it.getSets());
+    Assert.assertTrue(1.0 == it.interpolableGet());
+
+    timeline.suppressionSetDisabled(h);
+    Assert.assertFalse(timeline.suppressionIsEnabled(h));
+    timeline.currentTimeSet(0);
+    for (int index = 0; index <= 20; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(32, it.getSets());
+  }
+
+  @Test public void testSuppressionEpsilon()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final ISetCounter it = new ISetCounter();
+    final TrackHandle h = timeline.interpolableAdd(it);
+
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      0,
+      0.0));
+    timeline.keyframeAdd(h, new Keyframe(
+      InterpolationType.INTERPOLATE_LINEAR,
+      100,
+      1.0));
+
+    timeline.suppressionSetEnabled(h, 0.095);
+    for (int index = 0; index <= 100; ++index) {
+      timeline.step();
+    }
+    Assert.assertEquals(11, it.getSets());
+    Assert.assertTrue(1.0 == it.interpolableGet());
+  }
+
+  @Test(expected = ConstraintError.class) public void testSuppressionNaN()
+    throws ConstraintError
+  {
+    final Timeline timeline = new Timeline();
+    final TrackHandle h = timeline.interpolableAdd(new ITrivial());
+    timeline.suppressionSetEnabled(h, Double.NaN);
+  }
 }